@@ -6,8 +6,11 @@ import org.slf4j.LoggerFactory;
 import de.aint.detectors.MatchPeakWithIsotop;
 import de.aint.detectors.PeakDetection;
 import de.aint.models.*;
+import de.aint.operations.fitters.FitBudget;
+import de.aint.operations.fitters.GlobalPeakFitter;
+import de.aint.operations.fitters.RoiFitExecutor;
 
-import de.aint.readers.IsotopeReader;
+import de.aint.readers.IsotopeLibrary;
 
 public final class ROIPipeline {
 
@@ -15,26 +18,24 @@ public final class ROIPipeline {
 
     private ROIPipeline(){}
 
-    public static Process<Spectrum, ROI[]> specToRois(){
+    public static Process<Spectrum, ROI[]> specToRois(IsotopeLibrary library){
         return new Process<>() {
             @Override
             public ROI[] process(Spectrum input) throws ProcessException {
-                ROI[] rois = PeakDetection.splitSpectrumIntoRois(input);
+                ROI[] rois = PeakDetection.splitSpectrumIntoRois(input, library);
                 logger.info("ROI Detection Successful!");
                 return rois;
             }
         };
     }
 
-    public static Process<ROI[], ROI[]> matchIsotopes(){
+    public static Process<ROI[], ROI[]> matchIsotopes(IsotopeLibrary library){
         return new Process<>() {
             @Override
             public ROI[] process(ROI[] input) throws ProcessException {
-                IsotopeReader isoReader = new IsotopeReader(null);
-                isoReader.readIsotopes();
                 for (ROI roi : input) {
                     for (Peak peak : roi.getPeaks()) {
-                        peak.setEstimatedIsotope(MatchPeakWithIsotop.matchRoiWithIsotop(peak, isoReader, 1));
+                        MatchPeakWithIsotop.identify(peak, library, 1);
                     }
                 }
                 logger.info("Isotope Matching Successful!");
@@ -43,27 +44,35 @@ public final class ROIPipeline {
         };
     }
 
-    public static Process<ROI[], ROI[]> fitPeaks(){
+    public static Process<ROI[], ROI[]> fitPeaks(RoiFitExecutor executor){
         return new Process<>() {
             @Override
             public ROI[] process(ROI[] input) throws ProcessException {
-                for (ROI roi : input) {
-                    roi.fitGaussCurve();
-                }
-                logger.info("Peak Fitting Successful!");
+                int failed = executor.fitPeaks(input, FitBudget.forRequest()).size();
+                logger.info("Peak Fitting Successful! ({} of {} ROIs failed)", failed, input.length);
                 return input;
             }
         };
     }
 
-    public static Process<ROI[], ROI[]> setAreaOverBackground(){
+    //All ROIs together with sigma tied to the shared FWHM curve
+    public static Process<ROI[], ROI[]> fitPeaksGlobally(){
         return new Process<>() {
             @Override
             public ROI[] process(ROI[] input) throws ProcessException {
-                for (ROI roi : input) {
-                    roi.setAreaOverBackground();
-                }
-                logger.info("Area Over Background Calculation Successful!");
+                GlobalPeakFitter.fit(input, 100);
+                logger.info("Global Peak Fitting Successful!");
+                return input;
+            }
+        };
+    }
+
+    public static Process<ROI[], ROI[]> setAreaOverBackground(RoiFitExecutor executor){
+        return new Process<>() {
+            @Override
+            public ROI[] process(ROI[] input) throws ProcessException {
+                int failed = executor.setAreasOverBackground(input, FitBudget.forRequest()).size();
+                logger.info("Area Over Background Calculation Successful! ({} of {} ROIs failed)", failed, input.length);
                 return input;
             }
         };
@@ -3,10 +3,12 @@ package de.aint.builders;
 import de.aint.models.*;
 import de.aint.operations.*;
 import de.aint.operations.fitters.*;
-import de.aint.readers.IsotopeReader;
+import de.aint.readers.IsotopeLibrary;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
-import org.apache.commons.math3.special.Erf;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -19,56 +21,37 @@ public class SpectrumBuilder {
     }
 
     //=====================PEAK_FITTING======================================
-    public static Spectrum createPeakFitSpectrum(Spectrum spec, ROI[] rois) {
+    public static Spectrum createPeakFitSpectrum(Spectrum spec, ROI[] rois, RoiFitExecutor executor, FitBudget budget) {
     double[] energies = spec.getEnergy_per_channel();   // E[i] in keV
     int n = energies.length;
 
     //original untouched
     double[] fitCurve = new double[n];                  // sum of gaussians
     boolean[] touched = new boolean[n];                 //which bins r written to
+    double[] peaks = new double[n];                     //scratch for one ROI's peak sum
+
+    //Fit missing ROIs in parallel first, failures are logged by the executor and skipped below
+    ROI[] unfitted = Arrays.stream(rois).filter(r -> r.getFitParams() == null || r.getFitParams().length == 0).toArray(ROI[]::new);
+    executor.fitPeaks(unfitted, budget);
 
     for (ROI roi : rois) {
         if(roi.getFitParams() == null || roi.getFitParams().length == 0){
-            try{
-                roi.fitGaussCurve();
-            } catch (Exception e){
-                logger.error("Error fitting ROI from {} keV to {} keV: {}", roi.getStartEnergy(), roi.getEndEnergy(), e.getMessage());
-                continue;
-            }
+            continue;
         }
         double[] p = roi.getFitParams(); // p = [B, σ, A1, μ1, T1, G1, A2, μ2, T2, G2, ...]
 
         double B   = p[0];
-        double sigma = p[1];
-        int nPeaks = (p.length - 2) / 5;
 
-        int iStart = Helper.findChannelFromEnergy(roi.getStartEnergy(), energies);
-        int iEnd = Helper.findChannelFromEnergy(roi.getEndEnergy(),   energies);
+        int iStart = spec.energyAxis().channelOf(roi.getStartEnergy());
+        int iEnd = spec.energyAxis().channelOf(roi.getEndEnergy());
 
         iStart = Math.max(0, iStart);
         iEnd = Math.min(n-1, iEnd);
 
-        double inv2s2 = 1.0 / (2.0 * sigma * sigma);
+        PeakShape.evaluatePeaks(energies, iStart, iEnd + 1, p, peaks);
 
         for (int i = iStart; i <= iEnd; i++) {
-            double Ei = energies[i];
-            double sumPeaks = 0.0;
-            for (int k = 0; k < nPeaks; k++) {
-                double A  = p[2 + 5*k];
-                double mu = p[3 + 5*k];
-                double T  = p[4 + 5*k];
-                double G  = p[5 + 5*k];
-                double S  = p[6 + 5*k];
-                double z  = Ei - mu;
-                double delta = Math.sqrt(2) * sigma;
-
-                double base = Math.exp(- z*z * inv2s2);
-                double tail = 0.5 * T * Math.exp(z / (G * delta)) * Erf.erfc((z / delta) + 1.0 / (2.0 * G));
-                double step = 0.5 * S * Erf.erfc((z / delta));
-
-                sumPeaks += A * (base + tail + step);
-            }
-
+            double sumPeaks = peaks[i];
             fitCurve[i] += sumPeaks+B; 
             touched[i] = true;
         }
@@ -83,16 +66,16 @@ public class SpectrumBuilder {
 
 
     //=============CUSTOM==================
-    public static Spectrum createCustomSpectrum(Spectrum spectrum, ArrayList<String> selectedIsotopesAsIDString, IsotopeReader isotopeReader) {
-        ArrayList<Isotop> isotopes = isotopeReader.isotopes;
-        Isotop[] selectedIsos = isotopes.stream().filter(iso -> selectedIsotopesAsIDString.contains(iso.id)).toArray(Isotop[]::new);
+    public static Spectrum createCustomSpectrum(Spectrum spectrum, ArrayList<String> selectedIsotopesAsIDString, IsotopeLibrary library) {
+        Set<String> selectedIds = new HashSet<>(selectedIsotopesAsIDString);
+        Isotop[] selectedIsos = library.all().stream().filter(iso -> selectedIds.contains(iso.id)).toArray(Isotop[]::new);
 
-        //Create Spectrum with peaks, over selected Channels 
-        double[] counts = spectrum.getCounts();
+        //Create Spectrum with peaks, over selected Channels (on a copy, the input spectrum stays untouched)
+        double[] counts = spectrum.getCounts().clone();
 
         for(var iso : selectedIsos){
             double energy = iso.energy;
-            int channel = Helper.findChannelFromEnergy(energy, spectrum.getEnergy_per_channel());
+            int channel = spectrum.energyAxis().channelOf(energy);
             counts[channel] += 2.5*counts[channel];
         }
 
@@ -105,8 +88,39 @@ public class SpectrumBuilder {
 
     public static Spectrum createBackgroundSpectrum(Spectrum spec) {
         FittingData fitData = new FittingData(spec);
+        //Very long spectra (16k/32k MCAs) are split into segments and solved on all cores
+        Fitter.BackgroundFitAlgos algo = spec.getChannel_count() > fitData.getSegmentSize()
+                ? Fitter.BackgroundFitAlgos.ALS_PARALLEL
+                : Fitter.BackgroundFitAlgos.ALS_FAST;
         logger.info("Created background Spectrum.");
-        return new Spectrum(spec.getEnergy_per_channel(), Fitter.BackgroundFitAlgos.ALS_FAST.fit(fitData));
+        return new Spectrum(spec.getEnergy_per_channel(), algo.fit(fitData));
+    }
+
+    //Re-estimation with user params : warm-started from the last converged state of this spectrum
+    //put 0 for standart vals, iterations (saved) can be read from fitData afterwards
+    public static Spectrum createBackgroundSpectrum(Spectrum spec, FittingData fitData, double lambda, double p, int maxIter) {
+        if(lambda != 0){
+            fitData.setLambda(lambda);
+        }
+        if(p != 0){
+            fitData.setP(p);
+        }
+        if(maxIter != 0){
+            fitData.setMaxIter(maxIter);
+        }
+        double[] background = Fitter.BackgroundFitAlgos.ALS_WARM.fit(fitData);
+        logger.info("Created background Spectrum, {} iterations saved by warm start.", fitData.getIterationsSaved());
+        return new Spectrum(spec.getEnergy_per_channel(), background);
+    }
+
+    //SNIP clipping background, put 0 for standart window
+    public static Spectrum createSnipBackgroundSpectrum(Spectrum spec, int window) {
+        FittingData fitData = new FittingData(spec);
+        if(window != 0){
+            fitData.setSnipWindow(window);
+        }
+        logger.info("Created SNIP background Spectrum.");
+        return new Spectrum(spec.getEnergy_per_channel(), Fitter.BackgroundFitAlgos.SNIP.fit(fitData));
     }
 
     //=============SMOOTHED_SG=====================================
@@ -148,6 +162,21 @@ public class SpectrumBuilder {
 
 
 
+    //=====================SMOOTHED_GAUSS_RECURSIVE======================================
+    //put 0 for standart vals, cost independent of sigma
+    public static Spectrum createSmoothedSpectrumUsingRecursiveGauss(Spectrum spec, double sigma){
+        FittingData data = new FittingData(spec);
+        if(sigma != 0){
+            data.setGaussSigma(sigma);
+        }
+
+        double[] new_counts = Fitter.SmoothingFitAlgos.GAUSS_RECURSIVE.fit(data);
+        logger.info("Created smoothed Spectrum using recursive Gaussian.");
+        return new Spectrum(spec.getEnergy_per_channel(), new_counts);
+    }
+
+
+
     //=======================================STARTING_SET=================================================
     // 0 => Original Spectrum
     // 1 => Smoothed Spectrum
@@ -3,8 +3,10 @@ package de.aint.controller;
 import de.aint.models.Isotop;
 import de.aint.models.Spectrum;
 import de.aint.models.Persistence.Roi.RoiDTO;
+import de.aint.operations.fitters.MultiResolutionAls;
 import de.aint.services.SpectrumService;
 import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.PositiveOrZero;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
@@ -16,6 +18,7 @@ import org.springframework.web.multipart.MultipartFile;
 import java.io.File;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/")
@@ -51,12 +54,49 @@ public class ApiController {
     }
 
 
+    //algorithm = ALS | SNIP, window_size only used by SNIP
+    //lambda / p / max_iter = 0 => standart vals (cached), otherwise warm-started ALS re-estimation
+    //lambda > 0 and 0 < p < 1, other values make the ALS system meaningless or not positive definite => 400
+    //unknown algorithm => 400 (no silent fallback to ALS)
     @GetMapping("background")
-    public ResponseEntity<Spectrum> getBackground(
+    @CrossOrigin(origins = "*", exposedHeaders = {"X-Background-Iterations", "X-Background-Iterations-Saved"})
+    public ResponseEntity<?> getBackground(
             @RequestHeader("X-Spectrum-Id") Long spectrumId,
-            @RequestParam(defaultValue = "original") String source
+            @RequestParam(defaultValue = "original") String source,
+            @RequestParam(defaultValue = "ALS") String algorithm,
+            @RequestParam(name = "window_size", defaultValue = "0") @Min(0) int windowSize,
+            @RequestParam(defaultValue = "0") @PositiveOrZero double lambda,
+            @RequestParam(defaultValue = "0") double p,
+            @RequestParam(name = "max_iter", defaultValue = "0") @Min(0) int maxIter
+    ) {
+        if (!"ALS".equalsIgnoreCase(algorithm) && !"SNIP".equalsIgnoreCase(algorithm)) {
+            return ResponseEntity.badRequest().body("algorithm must be ALS or SNIP");
+        }
+        if (lambda != 0 && !(lambda > 0 && Double.isFinite(lambda))) {
+            return ResponseEntity.badRequest().body("lambda must be a positive number");
+        }
+        if (p != 0 && !(p > 0 && p < 1)) {
+            return ResponseEntity.badRequest().body("p must be between 0 and 1");
+        }
+        if ("SNIP".equalsIgnoreCase(algorithm) || (lambda == 0 && p == 0 && maxIter == 0)) {
+            return ResponseEntity.ok(service.getBackgroundById(spectrumId, source, algorithm, windowSize));
+        }
+        SpectrumService.BackgroundEstimate estimate = service.estimateBackgroundById(spectrumId, source, lambda, p, maxIter);
+        return ResponseEntity.ok()
+                .header("X-Background-Iterations", String.valueOf(estimate.iterations()))
+                .header("X-Background-Iterations-Saved", String.valueOf(estimate.iterationsSaved()))
+                .body(estimate.spectrum());
+    }
+
+
+    //Built-in accuracy check of the multi-resolution background (ALS_MULTIRES) against plain ALS
+    @GetMapping("background/compare")
+    public ResponseEntity<MultiResolutionAls.Comparison> compareBackground(
+            @RequestHeader("X-Spectrum-Id") Long spectrumId,
+            @RequestParam(name = "bin_factor", defaultValue = "0") @Min(0) int binFactor,
+            @RequestParam(name = "refine_iter", defaultValue = "0") @Min(0) int refineIter
     ) {
-        return ResponseEntity.ok(service.getBackgroundById(spectrumId, source));
+        return ResponseEntity.ok(service.compareMultiResBackgroundById(spectrumId, binFactor, refineIter));
     }
 
 
@@ -111,6 +151,17 @@ public class ApiController {
         }
     }
 
+    //POST "spectrum/expression" -> {"expression": "A - 0.8*B + C/2", "spectra": {"A": 1, "B": 2, "C": 3}}
+    @PostMapping(value = "spectrum/expression", consumes = "application/json")
+    public ResponseEntity<?> evaluateExpression(@RequestBody ExpressionRequest req) {
+        try {
+            return ResponseEntity.ok(service.evaluateExpression(req.expression(), req.spectra()));
+        } catch (IllegalArgumentException e) {
+            //Syntax error, unbound name, unknown ID or incompatible axes
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
     @GetMapping("spectrum/delete")
     public ResponseEntity<Void> deleteSpectrum(@RequestHeader("X-Spectrum-Id") Long spectrumId) {
         service.delSpectrum(spectrumId);
@@ -131,4 +182,6 @@ public class ApiController {
     public ResponseEntity<String> handleIllegalState(IllegalStateException ex) {
         return ResponseEntity.status(HttpStatus.CONFLICT).body(ex.getMessage());
     }
+
+    record ExpressionRequest(String expression, Map<String, Long> spectra) {}
 }
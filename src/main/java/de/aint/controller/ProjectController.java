@@ -20,6 +20,7 @@ import org.springframework.web.bind.annotation.RestController;
 import de.aint.models.Project;
 import de.aint.models.Spectrum;
 import de.aint.models.Persistence.Project.ProjectEntity;
+import de.aint.operations.calculators.SpectrumSummation;
 import de.aint.services.ProjectService;
 import de.aint.services.SpectrumService;
 import jakarta.validation.Valid;
@@ -71,6 +72,24 @@ public class ProjectController {
         return ResponseEntity.ok(spectra);
     }
 
+    //Sum / mean of all spectra of the project, weighting NONE, SRC_FORCE or LIVE_TIME
+    //LIVE_TIME returns count rates : SUM adds the rates, MEAN averages them
+    @GetMapping("/{name}/combine")
+    public ResponseEntity<?> combineProject(@PathVariable String name,
+            @RequestParam(defaultValue = "SUM") SpectrumSummation.Operation operation,
+            @RequestParam(defaultValue = "NONE") SpectrumSummation.Weighting weighting) {
+        Long projectId = projectService.getIDFromName(name);
+        if (projectId == null) {
+            return ResponseEntity.notFound().build();
+        }
+        try {
+            return ResponseEntity.ok(projectService.combineSpectraForProject(projectId, operation, weighting));
+        } catch (IllegalArgumentException e) {
+            //Empty project or spectra without live time
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
     @RequestMapping("addSpectrum")
     @PostMapping(consumes = "application/json")
     public ResponseEntity<Spectrum> addSpectrum(@RequestBody Spectrum spectrum, @RequestParam String projectName, @RequestParam String spectrumName) {
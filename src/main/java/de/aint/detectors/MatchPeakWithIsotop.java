@@ -1,30 +1,27 @@
 package de.aint.detectors;
+import java.util.List;
+
 import de.aint.models.*;
-import de.aint.readers.IsotopeReader;
+import de.aint.readers.IsotopeIndex;
+import de.aint.readers.IsotopeLibrary;
 
 public class MatchPeakWithIsotop {
 
-    //Calculates matching energy incl. toleranze
-    private static boolean matches_energy(double roi_energy, double isotop_energy, double tolerance) {
-        return Math.abs(roi_energy - isotop_energy) <= tolerance;
-    }
-
-    private static boolean matches_intensity(double roi_intensity, double isotop_intensity, double tolerance) {
-        return Math.abs(roi_intensity - isotop_intensity) <= tolerance;
-    }
+    //Candidates kept on a peak for display
+    static final int MAX_CANDIDATES = 5;
 
     // Method to match a region of interest (ROI) with isotopic data
-    public static Isotop matchRoiWithIsotop(Peak peak, IsotopeReader isoReader, double tolerance) {
-        //Prepare roi + isotopes for matching
-        //roi.setAreaOverBackground();
-
-        for (Isotop isotop : isoReader.isotopes) {
-            if( matches_energy((peak.getPeakCenter()), isotop.energy, tolerance)) {
-                // If both energy and intensity match, return the isotop
-                return isotop;
-            }
-        }
+    //Best ranked isotope within +-tolerance (keV), "UNK" if there is none
+    public static Isotop matchRoiWithIsotop(Peak peak, IsotopeLibrary library, double tolerance) {
+        Isotop best = library.index().best(peak.getPeakCenter(), tolerance);
         //Return "UNK"
-        return isoReader.isotopes.getFirst();
+        return best != null ? best : library.unknown();
+    }
+
+    //Sets the best match and the ranked candidates on the peak
+    public static void identify(Peak peak, IsotopeLibrary library, double tolerance) {
+        List<IsotopeIndex.Candidate> ranked = library.index().rank(peak.getPeakCenter(), tolerance, MAX_CANDIDATES);
+        peak.setEstimatedIsotope(ranked.isEmpty() ? library.unknown() : ranked.getFirst().isotope());
+        peak.setCandidateIsotopes(ranked.stream().map(IsotopeIndex.Candidate::isotope).toArray(Isotop[]::new));
     }
-}
\ No newline at end of file
+}
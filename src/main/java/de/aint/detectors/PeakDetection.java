@@ -2,12 +2,9 @@ package de.aint.detectors;
 
 import de.aint.builders.SpectrumBuilder;
 import de.aint.models.*;
-import de.aint.operations.*;
 import de.aint.operations.calculators.Calculator.CalculatingAlgos;
-import de.aint.readers.IsotopeReader;
+import de.aint.readers.IsotopeLibrary;
 
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 
 import org.slf4j.Logger;
@@ -18,7 +15,7 @@ public class PeakDetection {
 
     private static final Logger logger = LoggerFactory.getLogger(PeakDetection.class);
 
-    private static ArrayList<Peak> detectPeaksUsingMaxima(Spectrum spec){
+    private static ArrayList<Peak> detectPeaksUsingMaxima(Spectrum spec, IsotopeLibrary library){
 
             ArrayList<Peak> peaks = new ArrayList<>();
             Spectrum smoothed = SpectrumBuilder.createSmoothedSpectrumUsingSG(spec, 0, 0, true, 0);
@@ -40,14 +37,9 @@ public class PeakDetection {
                 }
             }
 
-        //Match Peaks w Isotopes
-        Path isoPath = Paths.get("src/main/resources/isotop_details.txt");
-        IsotopeReader isotopeReader = new IsotopeReader(isoPath.toString());
-        isotopeReader.readIsotopes();
+        //Match Peaks w Isotopes (shared library, no file access per detection)
         for(Peak peak : peaks) {
-            Isotop matchedIso = MatchPeakWithIsotop.matchRoiWithIsotop(peak, isotopeReader, 1);
-            peak.setEstimatedIsotope(matchedIso);
-            
+            MatchPeakWithIsotop.identify(peak, library, 1);
         }
 
 
@@ -58,21 +50,21 @@ public class PeakDetection {
 
 
 
-    public static ROI[] splitSpectrumIntoRois(Spectrum spec) {
-        ArrayList<Peak> peaks = PeakDetection.detectPeaksUsingMaxima(spec);
+    public static ROI[] splitSpectrumIntoRois(Spectrum spec, IsotopeLibrary library) {
+        ArrayList<Peak> peaks = PeakDetection.detectPeaksUsingMaxima(spec, library);
         ArrayList<ROI> rois = new ArrayList<>();
 
         while(!peaks.isEmpty()) {
             ArrayList<Peak> currentPeaks = new ArrayList<>();
             Peak peak = peaks.remove(0);
-            double FWHM = spec.getFwhmForNumber(Helper.findChannelFromEnergy(peak.getPeakCenter(), spec.getEnergy_per_channel()));
+            double FWHM = spec.getFwhmForNumber(spec.energyAxis().channelOf(peak.getPeakCenter()));
             double startEnergy = Math.max(0, peak.getPeakCenter() - FWHM);
             double endEnergy = Math.min(spec.getEnergy_per_channel()[spec.getChannel_count() - 1], peak.getPeakCenter() + FWHM);
             currentPeaks.add(peak);
 
             while(!peaks.isEmpty() && peaks.get(0).getPeakCenter() < endEnergy) {
                 Peak nextPeak = peaks.remove(0);
-                FWHM = spec.getFwhmForNumber(Helper.findChannelFromEnergy(nextPeak.getPeakCenter(), spec.getEnergy_per_channel()));
+                FWHM = spec.getFwhmForNumber(spec.energyAxis().channelOf(nextPeak.getPeakCenter()));
                 endEnergy = Math.min(spec.getEnergy_per_channel()[spec.getChannel_count() - 1], nextPeak.getPeakCenter() + FWHM);
                 currentPeaks.add(nextPeak);
             }
@@ -123,7 +115,7 @@ public class PeakDetection {
     }*/
 
     /*public static void detectAndSetPeakSizeUsingGradient(ROI roi, int windowSize) {
-        int peakCenter = Helper.findChannelFromEnergy(roi.getPeakCenter(), roi.getSpectrum().getEnergy_per_channel());
+        int peakCenter = roi.getSpectrum().energyAxis().channelOf(roi.getPeakCenter());
         double peakHeight = roi.getSpectrum().getCounts()[peakCenter];
 
         int startChannel = calculatePeakEndpoint(roi.getSpectrum().getCounts(), peakCenter, -windowSize, peakHeight * 0.05, 30);
@@ -0,0 +1,42 @@
+package de.aint.libraries;
+
+import java.util.Arrays;
+
+import de.aint.operations.fitters.FitterHelper;
+import de.aint.operations.fitters.PentadiagonalSolver;
+
+//Pure-Java fallback, same ALS as the native library on the banded solver
+final class JavaSmoothingLib implements SmoothingLib {
+
+    //Solver + weight buffers, reused per thread as long as channel count and lambda stay the same
+    private static final class Workspace {
+        final double lambda;
+        final PentadiagonalSolver solver;
+        final double[] weights;
+
+        Workspace(int n, double lambda) {
+            this.lambda = lambda;
+            this.solver = new PentadiagonalSolver(n, lambda);
+            this.weights = new double[n];
+        }
+    }
+
+    private static final ThreadLocal<Workspace> WORKSPACE = new ThreadLocal<>();
+
+    @Override
+    public String getBackendName() {
+        return "Java";
+    }
+
+    @Override
+    public int estimate_background_als(double[] counts, int n, double lambda, double p, int maxIterations, double[] out) {
+        Workspace ws = WORKSPACE.get();
+        if (ws == null || ws.solver.size() != n || ws.lambda != lambda) {
+            ws = new Workspace(n, lambda);
+            WORKSPACE.set(ws);
+        }
+        Arrays.fill(ws.weights, 1.0);
+        double[] y = counts.length == n ? counts : Arrays.copyOf(counts, n);
+        return FitterHelper.runAls(y, p, maxIterations, ws.solver, ws.weights, out);
+    }
+}
@@ -0,0 +1,53 @@
+package de.aint.libraries;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Path;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_DOUBLE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+
+//Binding to the native smoothing library via the Foreign Function & Memory API
+//Counts/background are passed as off-heap segments, so no per-element marshalling like JNA
+final class NativeSmoothingLib implements SmoothingLib {
+
+    private final Path libPath;
+    private final MethodHandle estimateBackgroundAls;
+
+    NativeSmoothingLib(Path libPath) {
+        this.libPath = libPath;
+        //Global arena : library stays loaded for the lifetime of the application
+        SymbolLookup lookup = SymbolLookup.libraryLookup(libPath, Arena.global());
+        MemorySegment symbol = lookup.find("estimate_background_als")
+                .orElseThrow(() -> new UnsatisfiedLinkError("estimate_background_als not found in " + libPath));
+        // int estimate_background_als(double* counts, int n, double lambda, double p, int maxIterations, double* out)
+        this.estimateBackgroundAls = Linker.nativeLinker().downcallHandle(symbol,
+                FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT, JAVA_DOUBLE, JAVA_DOUBLE, JAVA_INT, ADDRESS));
+    }
+
+    @Override
+    public String getBackendName() {
+        return "Native FFM (" + libPath.getFileName() + ")";
+    }
+
+    @Override
+    public int estimate_background_als(double[] counts, int n, double lambda, double p, int maxIterations, double[] out) {
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment countsSeg = arena.allocateArray(JAVA_DOUBLE, n);
+            MemorySegment.copy(counts, 0, countsSeg, JAVA_DOUBLE, 0, n);
+            MemorySegment outSeg = arena.allocateArray(JAVA_DOUBLE, n);
+
+            int status = (int) estimateBackgroundAls.invokeExact(countsSeg, n, lambda, p, maxIterations, outSeg);
+
+            MemorySegment.copy(outSeg, JAVA_DOUBLE, 0, out, 0, n);
+            return status;
+        } catch (Throwable t) {
+            throw new IllegalStateException("Native background estimation failed", t);
+        }
+    }
+}
@@ -1,15 +1,13 @@
 package de.aint.libraries;
 
-import java.nio.file.Path;
-import java.nio.file.Paths;
+//Backend for the fast ALS background path (Fitter.BackgroundFitAlgos.ALS_FAST)
+//INSTANCE is the native FFM binding if the smoothing library can be found, otherwise the pure-Java implementation
+public interface SmoothingLib {
+    SmoothingLib INSTANCE = SmoothingLibLoader.load();
 
-import com.sun.jna.Library;
-import com.sun.jna.Native;
+    String getBackendName();
 
-public interface SmoothingLib extends Library {
-    Path libPath = Paths.get("src/main/resources/smoothing.dll");
-    SmoothingLib INSTANCE = (SmoothingLib) Native.load(libPath.toString(), SmoothingLib.class);
-    
+    //Writes the estimated background of counts[0..n) to out, returns backend specific status (iterations for Java)
     int estimate_background_als(double[] counts, int n,
                                 double lambda, double p, int maxIterations,
                                 double[] out);
@@ -0,0 +1,76 @@
+package de.aint.libraries;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.aint.operations.fitters.FittingData;
+
+//Picks the SmoothingLib backend : native library if found, pure-Java otherwise
+public final class SmoothingLibLoader {
+
+    private static final Logger logger = LoggerFactory.getLogger(SmoothingLibLoader.class);
+
+    //Explicit library location, e.g. -Dsmoothing.lib=/opt/specanalysis/libsmoothing.so
+    public static final String LIB_PROPERTY = "smoothing.lib";
+    private static final String LIB_NAME = "smoothing";
+
+    private SmoothingLibLoader() {}
+
+    static SmoothingLib load() {
+        for (Path candidate : candidates()) {
+            if (!Files.isRegularFile(candidate)) continue;
+            try {
+                SmoothingLib lib = new NativeSmoothingLib(candidate);
+                logger.info("Loaded native smoothing library from {}", candidate);
+                return lib;
+            } catch (LinkageError | RuntimeException e) {
+                //UnsupportedClassVersionError if started without --enable-preview, UnsatisfiedLinkError/IAE for broken libs
+                logger.warn("Could not bind native smoothing library {}: {}", candidate, e.toString());
+            }
+        }
+        logger.info("No native smoothing library found, using pure-Java background estimation");
+        return new JavaSmoothingLib();
+    }
+
+    //-Dsmoothing.lib first, then java.library.path, then the legacy resource location
+    private static List<Path> candidates() {
+        List<Path> paths = new ArrayList<>();
+        String explicit = System.getProperty(LIB_PROPERTY);
+        if (explicit != null && !explicit.isBlank()) {
+            paths.add(Paths.get(explicit));
+        }
+        String fileName = System.mapLibraryName(LIB_NAME);
+        String libraryPath = System.getProperty("java.library.path", "");
+        for (String dir : libraryPath.split(File.pathSeparator)) {
+            if (!dir.isBlank()) paths.add(Paths.get(dir, fileName));
+        }
+        paths.add(Paths.get("src/main/resources", fileName));
+        return paths;
+    }
+
+    //Runs the active backend on a synthetic spectrum, returns mean latency per call in ms
+    public static double measureLatency(int channels, int runs) {
+        double[] counts = new double[channels];
+        for (int i = 0; i < channels; i++) {
+            double peak = (i % 512 == 256) ? 1e4 : 0.0;
+            counts[i] = 1e3 * Math.exp(-i / (double) channels) + peak;
+        }
+        double[] out = new double[channels];
+        //Warm up once so class loading / JIT does not count
+        SmoothingLib.INSTANCE.estimate_background_als(counts, channels,
+                FittingData.GenericOpts.lambda, FittingData.GenericOpts.p, FittingData.GenericOpts.maxIter, out);
+        long start = System.nanoTime();
+        for (int r = 0; r < runs; r++) {
+            SmoothingLib.INSTANCE.estimate_background_als(counts, channels,
+                FittingData.GenericOpts.lambda, FittingData.GenericOpts.p, FittingData.GenericOpts.maxIter, out);
+        }
+        return (System.nanoTime() - start) / 1e6 / Math.max(1, runs);
+    }
+}
@@ -0,0 +1,43 @@
+package de.aint.metrics;
+
+import org.springframework.stereotype.Component;
+
+import de.aint.operations.fitters.FitBudget;
+import de.aint.operations.fitters.KernelCache;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+//Registers the analysis metrics, available under /actuator/metrics
+@Component
+public class AnalysisMetrics implements MeterBinder {
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        //Smoothing kernel cache
+        Gauge.builder("specanalysis.kernel.cache.size", () -> KernelCache.stats().size())
+                .description("Number of cached smoothing kernels")
+                .register(registry);
+        Gauge.builder("specanalysis.kernel.cache.hit.rate", () -> KernelCache.stats().hitRate())
+                .description("Hit rate of the smoothing kernel cache")
+                .register(registry);
+        Gauge.builder("specanalysis.kernel.cache.hits", () -> KernelCache.stats().hits())
+                .register(registry);
+        Gauge.builder("specanalysis.kernel.cache.misses", () -> KernelCache.stats().misses())
+                .register(registry);
+
+        //Peak fit budgets
+        FunctionCounter.builder("specanalysis.fit.budget.exhausted", FitBudget.class, c -> FitBudget.getRoiExhaustedCount())
+                .tag("scope", "roi")
+                .description("Fits stopped by their own time / evaluation limit")
+                .register(registry);
+        FunctionCounter.builder("specanalysis.fit.budget.exhausted", FitBudget.class, c -> FitBudget.getRequestExhaustedCount())
+                .tag("scope", "request")
+                .description("Fits stopped because the request budget ran out")
+                .register(registry);
+        FunctionCounter.builder("specanalysis.fit.not.converged", FitBudget.class, c -> FitBudget.getNotConvergedCount())
+                .description("Fits that used up their iterations without converging (budget stops are counted separately)")
+                .register(registry);
+    }
+}
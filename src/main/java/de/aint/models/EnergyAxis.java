@@ -0,0 +1,125 @@
+package de.aint.models;
+
+//Channel <-> energy mapping of a spectrum
+//channelOf returns the channel whose energy is closest (lower channel on ties), same result as a linear scan over
+//energy_per_channel, but O(1) for polynomial calibrations and O(log n) for tabulated (e.g. MCNP) axes
+public interface EnergyAxis {
+
+    int size();
+
+    double energyOf(int channel);
+
+    int channelOf(double energy);
+
+    //E(c) = offset + slope * c + quad * c^2 over channels 0 .. channels-1, tabulated if it is not monotone there
+    static EnergyAxis polynomial(double offset, double slope, double quad, int channels) {
+        Polynomial axis = new Polynomial(offset, slope, quad, channels);
+        if (channels < 2 || axis.isMonotone()) return axis;
+        double[] energies = new double[channels];
+        for (int c = 0; c < channels; c++) energies[c] = axis.energyOf(c);
+        return tabulated(energies);
+    }
+
+    //Not copied, the array must not change while the axis is in use
+    static EnergyAxis tabulated(double[] energies) {
+        return new Tabulated(energies);
+    }
+
+    record Polynomial(double offset, double slope, double quad, int size) implements EnergyAxis {
+
+        //Same arithmetic as Spectrum.convertChannelsToEnergy => identical energies
+        @Override
+        public double energyOf(int channel) {
+            return offset + slope * (channel) + quad * (channel * channel);
+        }
+
+        //Inverse of the quadratic (stable form), then the nearer of the two neighbouring channels
+        @Override
+        public int channelOf(double energy) {
+            int last = size - 1;
+            if (last <= 0) return 0;
+            double d = energy - offset;
+            double c;
+            if (quad == 0.0) {
+                c = d / slope;
+            } else {
+                double disc = slope * slope + 4 * quad * d;
+                //disc < 0 : energy beyond the extremum of the parabola, i.e. outside the (monotone) axis
+                c = disc < 0 ? (quad * slope > 0 ? 0 : last) : 2 * d / (slope + Math.copySign(Math.sqrt(disc), slope));
+            }
+            if (!(c > 0)) return 0; //also NaN
+            if (c >= last) return last;
+            int lower = (int) c;
+            return nearer(energy, lower, lower + 1);
+        }
+
+        private int nearer(double energy, int lower, int upper) {
+            return Math.abs(energy - energyOf(lower)) <= Math.abs(energy - energyOf(upper)) ? lower : upper;
+        }
+
+        //dE/dc = slope + 2 quad c must not change sign on [0, size-1]
+        boolean isMonotone() {
+            double d0 = slope;
+            double d1 = slope + 2 * quad * (size - 1);
+            return d0 != 0 && Math.signum(d0) == Math.signum(d1);
+        }
+    }
+
+    final class Tabulated implements EnergyAxis {
+
+        private final double[] energies;
+        //+1 ascending, -1 descending, 0 not monotone (=> linear scan)
+        private final int direction;
+
+        Tabulated(double[] energies) {
+            this.energies = energies;
+            this.direction = direction(energies);
+        }
+
+        @Override
+        public int size() {
+            return energies.length;
+        }
+
+        @Override
+        public double energyOf(int channel) {
+            return energies[channel];
+        }
+
+        @Override
+        public int channelOf(double energy) {
+            if (direction == 0) return scan(energy);
+            //First index at or past energy in axis direction
+            int lo = 0, hi = energies.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (direction * (energies[mid] - energy) < 0) lo = mid + 1; else hi = mid;
+            }
+            if (lo == 0) return 0;
+            if (lo == energies.length) return energies.length - 1;
+            return Math.abs(energy - energies[lo - 1]) <= Math.abs(energy - energies[lo]) ? lo - 1 : lo;
+        }
+
+        private int scan(double energy) {
+            int idx = 0;
+            double minDiff = Math.abs(energy - energies[0]);
+            for (int i = 1; i < energies.length; i++) {
+                double diff = Math.abs(energy - energies[i]);
+                if (diff < minDiff) {
+                    minDiff = diff;
+                    idx = i;
+                }
+            }
+            return idx;
+        }
+
+        private static int direction(double[] energies) {
+            boolean ascending = true, descending = true;
+            for (int i = 1; i < energies.length; i++) {
+                if (!(energies[i] > energies[i - 1])) ascending = false;
+                if (!(energies[i] < energies[i - 1])) descending = false;
+            }
+            return ascending ? 1 : descending ? -1 : 0;
+        }
+    }
+}
@@ -7,6 +7,8 @@ public class Peak {
 
         private String estimatedIsotope = null;
         private Isotop matchedIsotope = null;
+        //Ranked best first, empty if nothing is within tolerance
+        private Isotop[] candidateIsotopes = new Isotop[0];
 
 
         public Peak(double peakCenter) {
@@ -24,6 +26,10 @@ public class Peak {
         public Isotop getMatchedIsotope(){
             return matchedIsotope;
         }
+
+        public Isotop[] getCandidateIsotopes() {
+            return candidateIsotopes;
+        }
         
         //Setters
         public void setEstimatedIsotope(Isotop isotope) {
@@ -34,4 +40,8 @@ public class Peak {
                 this.matchedIsotope = isotope;
             }
         }
+
+        public void setCandidateIsotopes(Isotop[] candidateIsotopes) {
+            this.candidateIsotopes = candidateIsotopes;
+        }
 }
@@ -8,11 +8,19 @@ public class RoiDTO {
     public double endEnergy;
     public double areaOverBackground;
     public Peak[] peaks;
+    //CONVERGED, NOT_CONVERGED or BUDGET_EXHAUSTED, null if the ROI was not fitted
+    public String fitStatus;
+    //Per peak, same order as peaks (uncertainty = 1 sigma from the fit covariance, null if unavailable)
+    public double[] peakAreas;
+    public double[] peakAreaUncertainties;
 
     public RoiDTO(ROI roi) {
         this.startEnergy = roi.getStartEnergy();
         this.endEnergy = roi.getEndEnergy();
         this.areaOverBackground = roi.getAreaOverBackground();
         this.peaks = roi.getPeaks();
+        this.fitStatus = roi.getFitStatus() != null ? roi.getFitStatus().name() : null;
+        this.peakAreas = roi.getPeakAreas();
+        this.peakAreaUncertainties = roi.getPeakAreaUncertainties();
     }
 }
@@ -18,6 +18,8 @@ public class SpectrumEntity {
     private double ec_slope;
     private double ec_quad;
     private double srcForce;
+    //Live time in s, null for spectra stored before it was recorded
+    private Double liveTime;
     
 
     @Lob
@@ -74,6 +76,10 @@ public class SpectrumEntity {
         return srcForce;
     }
 
+    public Double getLiveTime() {
+        return liveTime;
+    }
+
     public String getCountsJson() {
         return countsJson;
     }
@@ -90,4 +96,8 @@ public class SpectrumEntity {
     public void setId(Long id) {
         this.id = id;
     }
+
+    public void setLiveTime(Double liveTime) {
+        this.liveTime = liveTime;
+    }
 }
\ No newline at end of file
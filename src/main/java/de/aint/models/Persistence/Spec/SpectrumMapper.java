@@ -23,6 +23,7 @@ public class SpectrumMapper {
             String countsJson = mapper.writeValueAsString(spec.getCounts());
 
             SpectrumEntity entity = new SpectrumEntity(name, spec.getEc_offset(), spec.getEc_slope(), spec.getEc_quad(), spec.getSrcForce(), countsJson);
+            entity.setLiveTime(spec.getLiveTime());
             if (spec.getId() != null) {
                 entity.setId(spec.getId());
             }
@@ -39,6 +40,7 @@ public class SpectrumMapper {
         try{
             double[] counts = mapper.readValue(entity.getCountsJson(), double[].class);
             Spectrum spec = new Spectrum(entity.getId(), entity.getName(), counts, entity.getEc_offset(), entity.getEc_slope(), entity.getEc_quad(), entity.getSrcForce());
+            if(entity.getLiveTime() != null) spec.setLiveTime(entity.getLiveTime());
             if(entity.getProjectEntity() != null){
                 spec.setProjectId(entity.getProjectEntity().getId());
             }
@@ -3,13 +3,20 @@ package de.aint.models;
 import de.aint.builders.SpectrumBuilder;
 import de.aint.operations.calculators.Calculator;
 import de.aint.operations.calculators.Calculator.CalculatingAlgos;
+import de.aint.operations.fitters.FitBudget;
+import de.aint.operations.fitters.FitStatus;
 import de.aint.operations.fitters.Fitter;
+import de.aint.operations.fitters.LMPeakFitting;
 
 public class ROI {
 
     private final Peak[] peaks;
     private double[] fitParams;
+    private FitStatus fitStatus;
+    private double[] fitCovariance;
     private double areaOverBackground;
+    private double[] peakAreas;
+    private double[] peakAreaUncertainties;
 
     private final Spectrum spectrum;
     private double startEnergy;
@@ -28,18 +35,51 @@ public class ROI {
     public double[] getFitParams() {
         return fitParams;
     }
+    public FitStatus getFitStatus() {
+        return fitStatus;
+    }
+    public double[] getFitCovariance() {
+        return fitCovariance;
+    }
     public Peak[] getPeaks() {
         return peaks;
     }
     public double getAreaOverBackground() {
         return areaOverBackground;
     }
+    public double[] getPeakAreas() {
+        return peakAreas;
+    }
+    public double[] getPeakAreaUncertainties() {
+        return peakAreaUncertainties;
+    }
 
     //Setter
-    public void fitGaussCurve() {
-        this.fitParams = Fitter.PeakFitAlgos.GAUSSLM.fit(this);//Fit the peaks in the ROI using the GAUSS-LM algorithm
+    //Budget shared with the other ROIs of the request, params are the best so far if the budget runs out
+    public void fitGaussCurve(FitBudget budget) {
+        LMPeakFitting.Result result = Fitter.PeakFitAlgos.GAUSSLM.fit(this, budget);//Fit the peaks in the ROI using the GAUSS-LM algorithm
+        this.fitParams = result.params();
+        this.fitStatus = result.status();
+        this.fitCovariance = result.covariance();
+    }
+    //Params from an external (e.g. spectrum-wide) fit, same layout as fitGaussCurve
+    public void setFitParams(double[] fitParams, FitStatus fitStatus) {
+        setFitParams(fitParams, fitStatus, null);
+    }
+    //fitCovariance = flat params x params matrix as in LMPeakFitting.Result, null if unavailable
+    public void setFitParams(double[] fitParams, FitStatus fitStatus, double[] fitCovariance) {
+        this.fitParams = fitParams;
+        this.fitStatus = fitStatus;
+        this.fitCovariance = fitCovariance;
+    }
+    //Per-peak breakdown of the GAUSS area, uncertainties may be null (no covariance)
+    public void setPeakAreas(double[] peakAreas, double[] peakAreaUncertainties) {
+        this.peakAreas = peakAreas;
+        this.peakAreaUncertainties = peakAreaUncertainties;
     }
-    public void setAreaOverBackground() {
+    //Reuses the fit if there is one, otherwise fits under the caller's budget first
+    public void setAreaOverBackground(FitBudget budget) {
+        if (fitParams == null || fitParams.length == 0) fitGaussCurve(budget);
         this.areaOverBackground = Calculator.AreaAlgos.GAUSS.calculateArea(this); //Calculate the area over background using the GAUSS params
     }
 
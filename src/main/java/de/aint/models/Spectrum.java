@@ -7,8 +7,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.aint.models.Persistence.Project.ProjectEntity;
-import de.aint.operations.fitters.Fitter;
-import de.aint.operations.fitters.FittingData;
 
 
 
@@ -35,8 +33,16 @@ public class Spectrum {
     private double[] energy_per_channel;
     //srcForce in n/s || mcnp = cpunt*this
     private double srcForce = 1;
+    //Live time in s, 0 => unknown
+    private double liveTime;
 
-    private double[] backgroundCounts;
+    //true while energy_per_channel is exactly the polynomial of ec_offset / ec_slope / ec_quad
+    private boolean polynomialAxis;
+    //Built on first use, reset whenever energies or calibration change
+    private volatile EnergyAxis energyAxis;
+
+    //Background and net counts, shared by all ROIs of this spectrum
+    private final SpectrumDerivedData derived = new SpectrumDerivedData(this);
 
     //Variables for channel - energy calculation
     private double ec_offset;
@@ -84,12 +90,28 @@ public class Spectrum {
         for(int channel = 0; channel < channel_count; channel++){
             energy_per_channel[channel] = ec_offset + ec_slope*(channel) + ec_quad*(channel*channel);
         }
+        polynomialAxis = true;
+        energyAxis = null;
+    }
+
+    //Channel lookups : analytic inverse for calibrated spectra, binary search over energy_per_channel otherwise (MCNP)
+    //Not a bean getter on purpose, it is not part of the serialized spectrum
+    public EnergyAxis energyAxis() {
+        EnergyAxis axis = energyAxis;
+        if (axis == null) {
+            axis = polynomialAxis && energy_per_channel.length == channel_count
+                    ? EnergyAxis.polynomial(ec_offset, ec_slope, ec_quad, channel_count)
+                    : EnergyAxis.tabulated(energy_per_channel);
+            energyAxis = axis;
+        }
+        return axis;
     }
 
     //Function to normalize cnts
     public void normalizeCounts(){
         if(srcForce == 1) return;
         IntStream.range(0,this.counts.length).forEach(i -> this.counts[i]*=this.srcForce);
+        derived.invalidate();
     }
 
 
@@ -117,12 +139,19 @@ public class Spectrum {
     this.ec_offset = offset;
     this.ec_slope = slope;
     this.convertChannelsToEnergy();
+    derived.invalidate();
     logger.info("Changed Spectrum's energy calibration.");
 }
 
 
+    //Computes the ALS background once, later calls reuse it until counts or calibration change
     public void setBackgroundCounts() {
-        this.backgroundCounts = Fitter.BackgroundFitAlgos.ALS_FAST.fit(new FittingData(this));
+        derived.background();
+    }
+
+    //Not a bean getter on purpose : Spectra are serialized as responses and must not trigger a background solve
+    public SpectrumDerivedData derived() {
+        return derived;
     }
 
     public double getSrcForce(){
@@ -158,43 +187,71 @@ public class Spectrum {
         return shape_cal[0] + shape_cal[1] * channel + shape_cal[2] * channel * channel;
     }
 
+    //FWHM coefficients (copy), not a bean getter so the shared calibration stays out of every serialized spectrum
+    public double[] shapeCal() {
+        return shape_cal.clone();
+    }
+
+    //null if the background was not computed yet (or is outdated)
     public double[] getBackgroundCounts() {
-        return this.backgroundCounts;
+        return derived.backgroundIfPresent();
     }
 
     //Setter
     public void setCounts(double[] counts) {
         this.counts = counts;
+        derived.invalidate();
     }
 
     public void setEnergy_per_channel(double[] energy_per_channel) {
         this.energy_per_channel = energy_per_channel;
+        polynomialAxis = false;
+        energyAxis = null;
+        derived.invalidate();
     }
 
     public void setChannel_count(int channel_count) {
         this.channel_count = channel_count;
+        energyAxis = null;
     }
 
     public void setEc_offset(double ec_offset) {
         this.ec_offset = ec_offset;
+        polynomialAxis = false;
+        energyAxis = null;
+        derived.invalidate();
     }
 
     public void setEc_slope(double ec_slope) {
         this.ec_slope = ec_slope;
+        polynomialAxis = false;
+        energyAxis = null;
+        derived.invalidate();
     }
 
     public void setEc_quad(double ec_quad) {
         this.ec_quad = ec_quad;
+        polynomialAxis = false;
+        energyAxis = null;
+        derived.invalidate();
     }
 
     public void setBackgroundCounts(double[] backgroundCounts) {
-        this.backgroundCounts = backgroundCounts;
+        derived.setBackground(backgroundCounts);
     }
 
     public void setSrcForce(double srcForce) {
         this.srcForce = srcForce;
     }
 
+    public double getLiveTime() {
+        return liveTime;
+    }
+
+    public void setLiveTime(double liveTime) {
+        this.liveTime = liveTime;
+    }
+
     public void setShape_cal(double[] shape_cal) {
         this.shape_cal = shape_cal;
     }
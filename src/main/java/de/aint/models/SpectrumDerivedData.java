@@ -0,0 +1,78 @@
+package de.aint.models;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.aint.operations.fitters.Fitter;
+import de.aint.operations.fitters.FittingData;
+
+//Data every ROI of a spectrum needs (ALS background, counts minus background), computed once per spectrum state
+//Thread-safe : the first caller solves, concurrent callers wait for that result instead of solving again
+//Invalidated by the spectrum's setters (counts, calibration) ; validity is a revision check, O(1) per access
+//In-place edits of getCounts() are not detected => counts are only changed through the spectrum (setCounts, normalizeCounts)
+//Returned arrays are shared => read only
+public final class SpectrumDerivedData {
+
+    private record Snapshot(long revision, double[] counts, double[] background, double[] netCounts) {}
+
+    private final Spectrum spectrum;
+    private final AtomicLong revision = new AtomicLong();
+    private volatile Snapshot snapshot;
+
+    SpectrumDerivedData(Spectrum spectrum) {
+        this.spectrum = spectrum;
+    }
+
+    public double[] background() {
+        return current().background();
+    }
+
+    public double[] netCounts() {
+        return current().netCounts();
+    }
+
+    //Background if it is computed and still valid, null otherwise (never solves)
+    public double[] backgroundIfPresent() {
+        Snapshot s = snapshot;
+        return s != null && isValid(s, spectrum.getCounts()) ? s.background() : null;
+    }
+
+    //Background supplied from outside (e.g. a different algorithm), kept until the next change
+    void setBackground(double[] background) {
+        if (background == null) {
+            invalidate();
+            return;
+        }
+        double[] counts = spectrum.getCounts();
+        snapshot = snapshot(revision.get(), counts, background);
+    }
+
+    void invalidate() {
+        revision.incrementAndGet();
+        snapshot = null;
+    }
+
+    private Snapshot current() {
+        double[] counts = spectrum.getCounts();
+        Snapshot s = snapshot;
+        if (s != null && isValid(s, counts)) return s;
+        synchronized (this) {
+            s = snapshot;
+            if (s != null && isValid(s, counts)) return s;
+            //Revision read before solving => an invalidate during the solve leaves the result stale, not current
+            long rev = revision.get();
+            s = snapshot(rev, counts, Fitter.BackgroundFitAlgos.ALS_FAST.fit(new FittingData(spectrum)));
+            snapshot = s;
+            return s;
+        }
+    }
+
+    private boolean isValid(Snapshot s, double[] counts) {
+        return s.revision() == revision.get() && s.counts() == counts;
+    }
+
+    private static Snapshot snapshot(long rev, double[] counts, double[] background) {
+        double[] net = new double[counts.length];
+        for (int i = 0; i < net.length; i++) net[i] = counts[i] - background[i];
+        return new Snapshot(rev, counts, background, net);
+    }
+}
@@ -7,24 +7,12 @@ import java.util.stream.IntStream;
 import de.aint.models.*;
 public class Helper {
 
-    //Finds channel with least abs distance to energy lvl
-    public static int findChannelFromEnergy(double energy, double[] eRanges){
-        int idx = 0;
-        double minDiff = Math.abs(energy - eRanges[0]);
-        for (int i = 1; i < eRanges.length; i++) {
-            double diff = Math.abs(energy - eRanges[i]);
-            if (diff < minDiff) {
-                minDiff = diff;
-                idx = i;
-            }
-        }
-        return idx;
-    }
+    //Channel lookups : Spectrum.energyAxis() / EnergyAxis.tabulated(energies)
 
-    public static double[] createFittingEnergyLevels(double[] energy1, double[] energy2, int channel_count){
-        double energy_lowest = Math.min(energy1[0], energy2[0]);
-        double energy_highest = Math.max(energy1[energy1.length-1], energy2[energy2.length-1]);
-        float channel_size = (float) (Math.abs(energy_lowest - energy_highest)/channel_count);
+    //Uniform grid of channel_count channels from lowest to highest (both included)
+    //The one grid for differently calibrated spectra : pairwise ADDITION / SUBTRACTION, combine and expressions
+    public static double[] createFittingEnergyLevels(double energy_lowest, double energy_highest, int channel_count){
+        double channel_size = channel_count > 1 ? (energy_highest - energy_lowest)/(channel_count - 1) : 0.0;
 
         double[] eRanges = new double[channel_count];
         for(int i = 0; i < channel_count; i++){
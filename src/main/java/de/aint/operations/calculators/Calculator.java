@@ -2,15 +2,12 @@ package de.aint.operations.calculators;
 
 import java.util.Arrays;
 
-import org.apache.commons.math3.special.Erf;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.aint.models.ROI;
 import de.aint.models.Spectrum;
-import de.aint.operations.Helper;
-import de.aint.operations.fitters.Fitter;
-import de.aint.operations.fitters.FittingData;
+import de.aint.operations.fitters.PeakShape;
 
 public class Calculator {
 
@@ -99,66 +96,88 @@ public class Calculator {
         }
 
     //================ AREA WITH GAUSS===============================
+    //Closed-form integrals of the fitted peaks over the ROI, O(peaks) instead of a model sum per channel
+    //area_k = A_k * integral(shape_k) / channel width, so it matches a channel sum of the fitted peaks
         private static double calculateAreaUsingGauss(ROI roi) {
 
-            int startChannel = Helper.findChannelFromEnergy(roi.getStartEnergy(), roi.getSpectrum().getEnergy_per_channel());
-            int endChannel = Helper.findChannelFromEnergy(roi.getEndEnergy(), roi.getSpectrum().getEnergy_per_channel());
-
-            double[] params = Fitter.PeakFitAlgos.GAUSSLM.fit(roi);
+            //Fitting is up to the caller (ROI.setAreaOverBackground), so it runs under the caller's budget
+            if (roi.getFitParams() == null || roi.getFitParams().length == 0) {
+                throw new IllegalStateException("ROI has to be fitted before its Gauss area can be calculated.");
+            }
+            double[] params = roi.getFitParams();
+            double[] cov = roi.getFitCovariance();
             double[] E = roi.getSpectrum().getEnergy_per_channel();
-            double[] counts = roi.getSpectrum().getCounts();
 
-            double sigma = params[1];
-            double inv2s2 = 1.0 / (2.0 * sigma * sigma);
+            int startChannel = Math.max(0, roi.getSpectrum().energyAxis().channelOf(roi.getStartEnergy()));
+            int endChannel = Math.min(E.length - 1, roi.getSpectrum().energyAxis().channelOf(roi.getEndEnergy()));
+            double width = endChannel > startChannel ? (E[endChannel] - E[startChannel]) / (endChannel - startChannel)
+                                                     : Math.abs(E[Math.min(1, E.length - 1)] - E[0]);
+            if (width <= 0) width = 1.0;
+            //Channel edges around the first and last channel
+            double eFrom = E[startChannel] - 0.5 * width;
+            double eTo = E[endChannel] + 0.5 * width;
 
             int nPeaks = (params.length - 2) / 5;
-
+            double[] areas = new double[nPeaks];
+            double[] uncertainties = cov != null ? new double[nPeaks] : null;
             double area = 0.0;
-
-            for(int i = 0; i < nPeaks; i++) {
-                int offset = 2 + i * 5;
-                double A = params[offset];
-                double mu = params[offset + 1];
-                double T = params[offset + 2];
-                double G = params[offset + 3];
-                double S = params[offset + 4];
-                double delta = Math.sqrt(2)*sigma;
-
-                for(int channel = startChannel; channel <= endChannel; channel++) {
-
-                    double z  = E[i] - mu;
-                    double core = Math.exp(-z*z * inv2s2);
-                    double tail = 0.5*T * Math.exp(z / (G * delta)) * Erf.erfc((z / delta) + 1.0 / (2.0 * G));
-                    double step = 0.5*S * Erf.erfc((z / delta));
-                    area += A * (core + tail + step);
-                }
+            for (int k = 0; k < nPeaks; k++) {
+                areas[k] = peakArea(params, k, eFrom, eTo, width);
+                area += areas[k];
+                if (cov != null) uncertainties[k] = Math.sqrt(Math.max(0.0, areaVariance(params, cov, k, eFrom, eTo, width)));
             }
+            roi.setPeakAreas(areas, uncertainties);
             logger.info("Calculated area using Gauss: {}", area);
             return area;
 
         }
 
-    //================ AREA WITH COUNTS =========================
-        public static double calculateAreaUsingCounts(ROI roi) {
+        private static double peakArea(double[] p, int k, double eFrom, double eTo, double width) {
+            int offset = 2 + 5 * k;
+            return p[offset] * PeakShape.integral(eFrom, eTo, p[1], p[offset + 1], p[offset + 2], p[offset + 3], p[offset + 4]) / width;
+        }
 
-            //========================================================================================
-            //Calculate Background using ALS
-            double[] estimatedBackground = Fitter.BackgroundFitAlgos.ALS_FAST.fit(new FittingData(roi.getSpectrum()));
+        //g^T C g over the parameters the area of peak k depends on (sigma + its own block), g by central differences
+        private static double areaVariance(double[] p, double[] cov, int k, double eFrom, double eTo, double width) {
+            int n = p.length;
+            int offset = 2 + 5 * k;
+            int[] idx = {1, offset, offset + 1, offset + 2, offset + 3, offset + 4};
+            double[] g = new double[idx.length];
+            double[] q = p.clone();
+            for (int a = 0; a < idx.length; a++) {
+                int j = idx[a];
+                if (cov[j * n + j] == 0.0) continue; //fixed parameter
+                double h = 1e-6 * Math.max(Math.abs(p[j]), 1e-3);
+                q[j] = p[j] + h;
+                double up = peakArea(q, k, eFrom, eTo, width);
+                q[j] = p[j] - h;
+                double down = peakArea(q, k, eFrom, eTo, width);
+                q[j] = p[j];
+                g[a] = (up - down) / (2 * h);
+            }
+            double var = 0.0;
+            for (int a = 0; a < idx.length; a++) {
+                for (int b = 0; b < idx.length; b++) {
+                    var += g[a] * g[b] * cov[idx[a] * n + idx[b]];
+                }
+            }
+            return var;
+        }
 
-            Spectrum backgroundSpectrum = new Spectrum(roi.getSpectrum().getEnergy_per_channel(), estimatedBackground);
+    //================ AREA WITH COUNTS =========================
+        public static double calculateAreaUsingCounts(ROI roi) {
 
-            //Substract Background from Spectrum
-            Spectrum cleanedSpectrum = CalculatingAlgos.SUBTRACTION.calculate(roi.getSpectrum(), backgroundSpectrum);
-            //========================================================================================
+            //Counts minus ALS background, computed once per spectrum and shared by all its ROIs
+            double[] counts = roi.getSpectrum().derived().netCounts();
+            double[] energies = roi.getSpectrum().getEnergy_per_channel();
 
             //Find start and end channels
-            int startChannel = Helper.findChannelFromEnergy(roi.getStartEnergy(), cleanedSpectrum.getEnergy_per_channel());
-            int endChannel = Helper.findChannelFromEnergy(roi.getEndEnergy(), cleanedSpectrum.getEnergy_per_channel());
+            int startChannel = roi.getSpectrum().energyAxis().channelOf(roi.getStartEnergy());
+            int endChannel = roi.getSpectrum().energyAxis().channelOf(roi.getEndEnergy());
 
             double area = 0.0;
-            double[] counts = cleanedSpectrum.getCounts();
             //Calculate area over background
-            if (startChannel >= 0 && endChannel >= 0 && startChannel < cleanedSpectrum.getChannel_count() && endChannel < cleanedSpectrum.getChannel_count()) {
+            if (startChannel >= 0 && endChannel >= 0 && startChannel < counts.length && endChannel < counts.length) {
                 for (int i = startChannel; i <= endChannel; i++) {
                     area += counts[i];
                 }  
@@ -1,61 +1,38 @@
 package de.aint.operations.calculators;
 
+import java.util.List;
 import java.util.stream.IntStream;
 
 import de.aint.models.Spectrum;
-import de.aint.operations.Helper;
 
 public class CalculatorHelper {
 
+    //Scaled by srcForce like the diverse path => ADDITION / SUBTRACTION equal combine(..., SRC_FORCE) on every calibration
     public static Spectrum numericOperationOnEqualCalibrations(Spectrum spec1, Spectrum spec2, int channel_count, boolean isAddition) {
          double[] counts1 = spec1.getCounts();
             double[] counts2 = spec2.getCounts();
             double[] counts = new double[spec1.getChannel_count()];
-            //Addition
-            if(isAddition){
-                IntStream.range(0, counts.length).forEach(i -> counts[i] = counts1[i]+counts2[i]);
-            }else{
-                IntStream.range(0, counts.length).forEach(i -> counts[i] = counts1[i]-counts2[i]);
-            }
+            double f1 = spec1.getSrcForce();
+            double f2 = isAddition ? spec2.getSrcForce() : -spec2.getSrcForce();
+            IntStream.range(0, counts.length).forEach(i -> counts[i] = f1*counts1[i] + f2*counts2[i]);
 
             return new Spectrum(spec1.getEnergy_per_channel(), counts);
     }
 
+    //Both spectra are rebinned proportionally onto a common grid, scaled by their srcForce ; inputs stay untouched
+    //Same grid as SpectrumSummation.combine / expressions => A + B gives the same axis on every path
+    //Counts equal combine(..., SRC_FORCE) ; expressions do not scale, write the factors into the expression instead
     public static Spectrum numericOperationOnDiverseCalibrations(Spectrum spec1, Spectrum spec2, int channel_count, boolean isAddition) {
-        //Normalize counts
-        spec1.normalizeCounts();
-        spec2.normalizeCounts();
-
-        //Create channel/energy range
+        //Create channel/energy range (channel_count of spec1)
         double[] energy1 = spec1.getEnergy_per_channel();
         double[] energy2 = spec2.getEnergy_per_channel();
-        double[] e_ranges = Helper.createFittingEnergyLevels(spec1.getEnergy_per_channel(), spec2.getEnergy_per_channel(), channel_count);
+        double[] e_ranges = SpectrumSummation.commonGrid(List.of(spec1, spec2));
 
-        //Create counts
-        double[] counts1 = spec1.getCounts();
-        double[] counts2 = spec2.getCounts();
+        //Create counts (plans are cached per calibration pair)
         double[] counts = new double[channel_count];
+        Rebinning.plan(energy1, e_ranges).apply(spec1.getCounts(), spec1.getSrcForce(), counts);
+        Rebinning.plan(energy2, e_ranges).apply(spec2.getCounts(), isAddition ? spec2.getSrcForce() : -spec2.getSrcForce(), counts);
 
-        //Add counts from spec 1 to new spec
-        for(int i = 0; i < counts1.length; i++){
-            int idx = Helper.findChannelFromEnergy(energy1[i], e_ranges);
-            if(idx >= 0 && idx < counts.length) counts[idx] += counts1[i];
-        }
-
-        if(isAddition){
-            //Add counts from spec 2 to new spec
-            for(int i = 0; i < counts2.length; i++){
-                int idx = Helper.findChannelFromEnergy(energy2[i], e_ranges);
-                if(idx >= 0 && idx < counts.length) counts[idx] += counts2[i];
-            }
-        }else{
-             //Subtracts counts from spec 2 to new spec
-            for(int i = 0; i < counts2.length; i++){
-                int idx = Helper.findChannelFromEnergy(energy2[i], e_ranges);
-                if(idx >= 0 && idx < counts.length) counts[idx] -= counts2[i];
-            }
-        }
-        
         return new Spectrum(e_ranges, counts);
     }
 }
@@ -0,0 +1,126 @@
+package de.aint.operations.calculators;
+
+import java.util.function.Supplier;
+
+//Recursive descent parser for SpectrumExpression.parse, errors as IllegalArgumentException with the position
+//Length, nesting and operator count are capped => request input cannot overflow the stack here or in the evaluator's tree walks
+final class ExpressionParser {
+
+    static final int MAX_LENGTH = 4096;
+    //Parentheses and unary signs in a row
+    static final int MAX_DEPTH = 256;
+    //Binary operators in total, chains build left-deep trees => bounds the tree depth together with MAX_DEPTH
+    static final int MAX_OPERATORS = 1024;
+
+    private final String text;
+    private int pos;
+    private int depth;
+    private int operators;
+
+    ExpressionParser(String text) {
+        if (text == null || text.isBlank()) throw new IllegalArgumentException("Expression must not be empty.");
+        if (text.length() > MAX_LENGTH) {
+            throw new IllegalArgumentException("Expression is longer than " + MAX_LENGTH + " characters.");
+        }
+        this.text = text;
+    }
+
+    SpectrumExpression parse() {
+        SpectrumExpression expression = sum();
+        skipWhitespace();
+        if (pos < text.length()) throw error("Unexpected '" + text.charAt(pos) + "'");
+        return expression;
+    }
+
+    private SpectrumExpression sum() {
+        SpectrumExpression left = product();
+        while (true) {
+            if (accept('+')) left = left.plus(operand(this::product));
+            else if (accept('-')) left = left.minus(operand(this::product));
+            else return left;
+        }
+    }
+
+    private SpectrumExpression product() {
+        SpectrumExpression left = unary();
+        while (true) {
+            if (accept('*')) left = left.times(operand(this::unary));
+            else if (accept('/')) left = left.dividedBy(operand(this::unary));
+            else return left;
+        }
+    }
+
+    private SpectrumExpression unary() {
+        if (accept('-')) return nested(() -> unary().negate());
+        if (accept('+')) return nested(this::unary);
+        if (accept('(')) {
+            SpectrumExpression inner = nested(this::sum);
+            if (!accept(')')) throw error("Missing ')'");
+            return inner;
+        }
+        skipWhitespace();
+        if (pos >= text.length()) throw error("Unexpected end of expression");
+        char c = text.charAt(pos);
+        if (Character.isDigit(c) || c == '.') return number();
+        if (Character.isLetter(c) || c == '_') return name();
+        throw error("Unexpected '" + c + "'");
+    }
+
+    //Digits with optional fraction and exponent, e.g. 0.8, .5, 1e-3
+    private SpectrumExpression number() {
+        int start = pos;
+        while (pos < text.length() && (Character.isDigit(text.charAt(pos)) || text.charAt(pos) == '.')) pos++;
+        if (pos < text.length() && (text.charAt(pos) == 'e' || text.charAt(pos) == 'E')) {
+            int exponent = pos + 1;
+            if (exponent < text.length() && (text.charAt(exponent) == '+' || text.charAt(exponent) == '-')) exponent++;
+            if (exponent < text.length() && Character.isDigit(text.charAt(exponent))) {
+                pos = exponent;
+                while (pos < text.length() && Character.isDigit(text.charAt(pos))) pos++;
+            }
+        }
+        try {
+            return SpectrumExpression.constant(Double.parseDouble(text.substring(start, pos)));
+        } catch (NumberFormatException e) {
+            pos = start;
+            throw error("Invalid number");
+        }
+    }
+
+    private SpectrumExpression name() {
+        int start = pos;
+        while (pos < text.length() && (Character.isLetterOrDigit(text.charAt(pos)) || text.charAt(pos) == '_')) pos++;
+        return SpectrumExpression.variable(text.substring(start, pos));
+    }
+
+    //Right operand of a binary operator
+    private SpectrumExpression operand(Supplier<SpectrumExpression> right) {
+        if (++operators > MAX_OPERATORS) throw error("Expression has more than " + MAX_OPERATORS + " operators");
+        return right.get();
+    }
+
+    private SpectrumExpression nested(Supplier<SpectrumExpression> inner) {
+        if (++depth > MAX_DEPTH) throw error("Expression nested deeper than " + MAX_DEPTH);
+        try {
+            return inner.get();
+        } finally {
+            depth--;
+        }
+    }
+
+    private boolean accept(char c) {
+        skipWhitespace();
+        if (pos < text.length() && text.charAt(pos) == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipWhitespace() {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) pos++;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + pos + " in expression: " + text);
+    }
+}
@@ -0,0 +1,191 @@
+package de.aint.operations.calculators;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.aint.models.Spectrum;
+
+//Evaluation of SpectrumExpression : leaves are resolved to slots (one per distinct spectrum), constants are folded,
+//every slot is rebinned once onto the common grid (cached plans), then one pass computes all channels
+//Linear expressions (sums of spectra times constants) become one weighted sum, anything else runs as a postfix program
+final class FusedEvaluator {
+
+    private static final Logger logger = LoggerFactory.getLogger(FusedEvaluator.class);
+
+    private static final int LOAD = 0, CONST = 1, NEG = 2, BINARY = 3;
+
+    //Resolved tree, Load refers to a slot
+    private sealed interface Node {}
+    private record Load(int slot) implements Node {}
+    private record Const(double value) implements Node {}
+    private record Neg(Node operand) implements Node {}
+    private record Bin(SpectrumExpression.Operator operator, Node left, Node right) implements Node {}
+
+    //result = offset + sum of coefficients[slot] * operand[slot]
+    private record Linear(double[] coefficients, double offset) {}
+
+    private FusedEvaluator() {}
+
+    static Spectrum evaluate(SpectrumExpression expression, Map<String, Spectrum> bindings) {
+        //Same spectrum under two names or twice in the tree => one slot
+        Map<Spectrum, Integer> slots = new IdentityHashMap<>();
+        List<Spectrum> spectra = new ArrayList<>();
+        Node root = resolve(expression, bindings, slots, spectra);
+        if (spectra.isEmpty()) {
+            throw new IllegalArgumentException("Expression must reference at least one spectrum.");
+        }
+
+        double[] grid = SpectrumSummation.commonGrid(spectra);
+        double[][] operands = new double[spectra.size()][];
+        for (int k = 0; k < operands.length; k++) {
+            Spectrum spec = spectra.get(k);
+            //Counts are only read, no copy for spectra already on the grid
+            operands[k] = Arrays.equals(spec.getEnergy_per_channel(), grid)
+                    ? spec.getCounts()
+                    : Rebinning.plan(spec.getEnergy_per_channel(), grid).apply(spec.getCounts());
+        }
+
+        Linear linear = linear(root, operands.length);
+        double[] result = linear != null ? weightedSum(linear, operands, grid.length) : run(root, operands, grid.length);
+        logger.info("Evaluated spectrum expression over {} spectra onto {} channels ({})",
+                operands.length, grid.length, linear != null ? "linear" : "general");
+        return SpectrumSummation.onGrid(grid, result, spectra.getFirst());
+    }
+
+    private static Node resolve(SpectrumExpression expression, Map<String, Spectrum> bindings,
+            Map<Spectrum, Integer> slots, List<Spectrum> spectra) {
+        return switch (expression) {
+            case SpectrumExpression.Variable v -> {
+                Spectrum spec = bindings.get(v.name());
+                if (spec == null) throw new IllegalArgumentException("No spectrum bound to '" + v.name() + "'.");
+                yield slot(spec, slots, spectra);
+            }
+            case SpectrumExpression.Source s -> {
+                if (s.spectrum() == null) throw new IllegalArgumentException("Spectrum must not be null.");
+                yield slot(s.spectrum(), slots, spectra);
+            }
+            case SpectrumExpression.Constant c -> new Const(c.value());
+            case SpectrumExpression.Negate n -> {
+                Node operand = resolve(n.operand(), bindings, slots, spectra);
+                yield operand instanceof Const c ? new Const(-c.value()) : new Neg(operand);
+            }
+            case SpectrumExpression.Binary b -> {
+                Node left = resolve(b.left(), bindings, slots, spectra);
+                Node right = resolve(b.right(), bindings, slots, spectra);
+                yield left instanceof Const l && right instanceof Const r
+                        ? new Const(b.operator().apply(l.value(), r.value()))
+                        : new Bin(b.operator(), left, right);
+            }
+        };
+    }
+
+    private static Load slot(Spectrum spec, Map<Spectrum, Integer> slots, List<Spectrum> spectra) {
+        return new Load(slots.computeIfAbsent(spec, s -> {
+            spectra.add(s);
+            return spectra.size() - 1;
+        }));
+    }
+
+    //null => not linear (product or quotient of spectra)
+    private static Linear linear(Node node, int slotCount) {
+        return switch (node) {
+            case Load l -> {
+                double[] coefficients = new double[slotCount];
+                coefficients[l.slot()] = 1.0;
+                yield new Linear(coefficients, 0.0);
+            }
+            case Const c -> new Linear(new double[slotCount], c.value());
+            case Neg n -> scale(linear(n.operand(), slotCount), -1.0);
+            case Bin b -> switch (b.operator()) {
+                case ADD -> combine(linear(b.left(), slotCount), linear(b.right(), slotCount), 1.0);
+                case SUBTRACT -> combine(linear(b.left(), slotCount), linear(b.right(), slotCount), -1.0);
+                case MULTIPLY -> b.left() instanceof Const c ? scale(linear(b.right(), slotCount), c.value())
+                        : b.right() instanceof Const c ? scale(linear(b.left(), slotCount), c.value())
+                        : null;
+                case DIVIDE -> b.right() instanceof Const c ? scale(linear(b.left(), slotCount), 1.0 / c.value()) : null;
+            };
+        };
+    }
+
+    private static Linear scale(Linear linear, double factor) {
+        if (linear == null) return null;
+        double[] coefficients = linear.coefficients();
+        for (int k = 0; k < coefficients.length; k++) coefficients[k] *= factor;
+        return new Linear(coefficients, linear.offset() * factor);
+    }
+
+    //left + sign * right
+    private static Linear combine(Linear left, Linear right, double sign) {
+        if (left == null || right == null) return null;
+        double[] coefficients = left.coefficients();
+        for (int k = 0; k < coefficients.length; k++) coefficients[k] += sign * right.coefficients()[k];
+        return new Linear(coefficients, left.offset() + sign * right.offset());
+    }
+
+    private static double[] weightedSum(Linear linear, double[][] operands, int channels) {
+        double[] out = new double[channels];
+        Arrays.fill(out, linear.offset());
+        for (int k = 0; k < operands.length; k++) {
+            double c = linear.coefficients()[k];
+            double[] op = operands[k];
+            for (int j = 0; j < channels; j++) out[j] += c * op[j];
+        }
+        return out;
+    }
+
+    //Postfix program, evaluated channel by channel on a small stack
+    private static double[] run(Node root, double[][] operands, int channels) {
+        List<Node> program = new ArrayList<>();
+        int depth = flatten(root, program);
+        int n = program.size();
+        int[] code = new int[n];
+        int[] slot = new int[n];
+        double[] value = new double[n];
+        SpectrumExpression.Operator[] operator = new SpectrumExpression.Operator[n];
+        for (int i = 0; i < n; i++) {
+            switch (program.get(i)) {
+                case Load l -> { code[i] = LOAD; slot[i] = l.slot(); }
+                case Const c -> { code[i] = CONST; value[i] = c.value(); }
+                case Neg ignored -> code[i] = NEG;
+                case Bin b -> { code[i] = BINARY; operator[i] = b.operator(); }
+            }
+        }
+
+        double[] out = new double[channels];
+        double[] stack = new double[depth];
+        for (int j = 0; j < channels; j++) {
+            int sp = 0;
+            for (int i = 0; i < n; i++) {
+                switch (code[i]) {
+                    case LOAD -> stack[sp++] = operands[slot[i]][j];
+                    case CONST -> stack[sp++] = value[i];
+                    case NEG -> stack[sp - 1] = -stack[sp - 1];
+                    default -> {
+                        sp--;
+                        stack[sp - 1] = operator[i].apply(stack[sp - 1], stack[sp]);
+                    }
+                }
+            }
+            out[j] = stack[0];
+        }
+        return out;
+    }
+
+    //Appends the node in postfix order, returns the stack depth it needs
+    private static int flatten(Node node, List<Node> program) {
+        int depth = switch (node) {
+            case Load l -> 1;
+            case Const c -> 1;
+            case Neg neg -> flatten(neg.operand(), program);
+            case Bin b -> Math.max(flatten(b.left(), program), 1 + flatten(b.right(), program));
+        };
+        program.add(node);
+        return depth;
+    }
+}
@@ -0,0 +1,132 @@
+package de.aint.operations.calculators;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//Proportional rebinning between two energy axes (channel energies = bin centers, edges halfway between neighbours)
+//Every source channel is split over the target bins it overlaps, by overlap fraction => counts are conserved
+//wherever the axes overlap and there is no aliasing from moving whole channels into the nearest bin
+//Plans are built in one merge pass over both edge lists (O(n + m)) and cached per axis pair, inputs are never modified
+public final class Rebinning {
+
+    //Number of axis pairs whose plan is kept (LRU)
+    static final int MAX_PLANS = 32;
+
+    //Sparse (source channel, target channel, fraction of the source channel) triples, ordered by source and target
+    public record Plan(int sourceSize, int targetSize, int[] source, int[] target, double[] fraction) {
+
+        //out[target] += scale * fraction * counts[source], out must have targetSize entries
+        public void apply(double[] counts, double scale, double[] out) {
+            if (counts.length != sourceSize || out.length != targetSize) {
+                throw new IllegalArgumentException("Counts / output do not match the rebinning plan.");
+            }
+            for (int k = 0; k < source.length; k++) {
+                out[target[k]] += scale * fraction[k] * counts[source[k]];
+            }
+        }
+
+        public double[] apply(double[] counts) {
+            double[] out = new double[targetSize];
+            apply(counts, 1.0, out);
+            return out;
+        }
+    }
+
+    //Axis pair as cache key, arrays are copies => later changes of a spectrum's energies cannot alter a key
+    private record Key(double[] from, double[] to, int hash) {
+        Key(double[] from, double[] to) {
+            this(from, to, 31 * Arrays.hashCode(from) + Arrays.hashCode(to));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key k && hash == k.hash && Arrays.equals(from, k.from) && Arrays.equals(to, k.to);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final Map<Key, Plan> plans = Collections.synchronizedMap(
+            new LinkedHashMap<>(MAX_PLANS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, Plan> eldest) {
+                    return size() > MAX_PLANS;
+                }
+            });
+
+    private Rebinning() {}
+
+    //Cached plan from the channel energies "from" to the channel energies "to" (both ascending)
+    public static Plan plan(double[] from, double[] to) {
+        Key key = new Key(from, to);
+        Plan plan = plans.get(key);
+        if (plan == null) {
+            plan = compute(from, to);
+            plans.put(new Key(from.clone(), to.clone(), key.hash()), plan);
+        }
+        return plan;
+    }
+
+    public static double[] rebin(double[] counts, double[] from, double[] to) {
+        return plan(from, to).apply(counts);
+    }
+
+    public static void clear() {
+        plans.clear();
+    }
+
+    //Merge pass : advance whichever bin ends first, every step emits at most one overlap => at most n + m entries
+    static Plan compute(double[] from, double[] to) {
+        requireAscending(from);
+        requireAscending(to);
+        int n = from.length;
+        int m = to.length;
+        int[] source = new int[n + m];
+        int[] target = new int[n + m];
+        double[] fraction = new double[n + m];
+        int k = 0;
+
+        int s = 0, t = 0;
+        double sLo = lowerEdge(from, 0), sHi = upperEdge(from, 0);
+        double tLo = lowerEdge(to, 0), tHi = upperEdge(to, 0);
+        while (s < n && t < m) {
+            double overlap = Math.min(sHi, tHi) - Math.max(sLo, tLo);
+            if (overlap > 0) {
+                source[k] = s;
+                target[k] = t;
+                fraction[k] = overlap / (sHi - sLo);
+                k++;
+            }
+            if (sHi <= tHi) {
+                if (++s < n) { sLo = sHi; sHi = upperEdge(from, s); }
+            } else {
+                if (++t < m) { tLo = tHi; tHi = upperEdge(to, t); }
+            }
+        }
+        return new Plan(n, m, Arrays.copyOf(source, k), Arrays.copyOf(target, k), Arrays.copyOf(fraction, k));
+    }
+
+    //Outer edges extrapolated by half the neighbouring spacing, a single channel is 1 keV wide
+    private static double lowerEdge(double[] e, int i) {
+        if (i > 0) return 0.5 * (e[i - 1] + e[i]);
+        return e.length > 1 ? e[0] - 0.5 * (e[1] - e[0]) : e[0] - 0.5;
+    }
+
+    private static double upperEdge(double[] e, int i) {
+        int last = e.length - 1;
+        if (i < last) return 0.5 * (e[i] + e[i + 1]);
+        return last > 0 ? e[last] + 0.5 * (e[last] - e[last - 1]) : e[last] + 0.5;
+    }
+
+    private static void requireAscending(double[] e) {
+        if (e.length == 0) throw new IllegalArgumentException("Energy axis must not be empty.");
+        for (int i = 1; i < e.length; i++) {
+            if (!(e[i] > e[i - 1])) throw new IllegalArgumentException("Energy axis must be strictly ascending.");
+        }
+    }
+}
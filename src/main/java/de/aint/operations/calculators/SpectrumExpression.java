@@ -0,0 +1,121 @@
+package de.aint.operations.calculators;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import de.aint.models.Spectrum;
+
+//Lazy arithmetic over spectra, e.g. A - 0.8*B + C/2
+//Building the tree computes nothing; evaluate rebins every distinct spectrum once onto a common grid and then
+//evaluates the whole tree in a single pass over primitive arrays => no intermediate Spectrum per operator
+//Operators work channel by channel, A*B and A/B included (x/0 gives Infinity / NaN as in plain double arithmetic)
+public sealed interface SpectrumExpression {
+
+    enum Operator {
+        ADD('+'), SUBTRACT('-'), MULTIPLY('*'), DIVIDE('/');
+
+        final char symbol;
+
+        Operator(char symbol) {
+            this.symbol = symbol;
+        }
+
+        double apply(double a, double b) {
+            return switch (this) {
+                case ADD -> a + b;
+                case SUBTRACT -> a - b;
+                case MULTIPLY -> a * b;
+                case DIVIDE -> a / b;
+            };
+        }
+    }
+
+    //Named spectrum, bound on evaluation (e.g. to a stored spectrum)
+    record Variable(String name) implements SpectrumExpression {}
+
+    //Spectrum given directly
+    record Source(Spectrum spectrum) implements SpectrumExpression {}
+
+    record Constant(double value) implements SpectrumExpression {}
+
+    record Negate(SpectrumExpression operand) implements SpectrumExpression {}
+
+    record Binary(Operator operator, SpectrumExpression left, SpectrumExpression right) implements SpectrumExpression {}
+
+    //Grammar : sum = product (('+' | '-') product)*, product = unary (('*' | '/') unary)*,
+    //unary = '-' unary | number | name | '(' sum ')' ; names are letters, digits and '_', starting with a letter or '_'
+    static SpectrumExpression parse(String expression) {
+        return new ExpressionParser(expression).parse();
+    }
+
+    static SpectrumExpression of(Spectrum spectrum) {
+        return new Source(spectrum);
+    }
+
+    static SpectrumExpression variable(String name) {
+        return new Variable(name);
+    }
+
+    static SpectrumExpression constant(double value) {
+        return new Constant(value);
+    }
+
+    default SpectrumExpression plus(SpectrumExpression other) {
+        return new Binary(Operator.ADD, this, other);
+    }
+
+    default SpectrumExpression minus(SpectrumExpression other) {
+        return new Binary(Operator.SUBTRACT, this, other);
+    }
+
+    default SpectrumExpression times(SpectrumExpression other) {
+        return new Binary(Operator.MULTIPLY, this, other);
+    }
+
+    default SpectrumExpression times(double factor) {
+        return times(constant(factor));
+    }
+
+    default SpectrumExpression dividedBy(SpectrumExpression other) {
+        return new Binary(Operator.DIVIDE, this, other);
+    }
+
+    default SpectrumExpression dividedBy(double divisor) {
+        return dividedBy(constant(divisor));
+    }
+
+    default SpectrumExpression negate() {
+        return new Negate(this);
+    }
+
+    //Names of all variables, in order of first appearance
+    default Set<String> variables() {
+        Set<String> names = new LinkedHashSet<>();
+        collectVariables(this, names);
+        return names;
+    }
+
+    //Only for expressions without variables
+    default Spectrum evaluate() {
+        return evaluate(Map.of());
+    }
+
+    //Result on the axis of the first spectrum if all share it, otherwise on SpectrumSummation.commonGrid
+    default Spectrum evaluate(Map<String, Spectrum> bindings) {
+        return FusedEvaluator.evaluate(this, bindings);
+    }
+
+    private static void collectVariables(SpectrumExpression expression, Set<String> names) {
+        switch (expression) {
+            case Variable v -> names.add(v.name());
+            case Source s -> { }
+            case Constant c -> { }
+            case Negate n -> collectVariables(n.operand(), names);
+            case Binary b -> {
+                collectVariables(b.left(), names);
+                collectVariables(b.right(), names);
+            }
+        }
+    }
+}
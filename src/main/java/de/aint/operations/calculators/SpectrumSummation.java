@@ -0,0 +1,149 @@
+package de.aint.operations.calculators;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.aint.models.Spectrum;
+import de.aint.operations.Helper;
+
+//N-ary sum / mean of spectra (e.g. all hourly measurements of a project) in one operation
+//Parallel tree reduction on the common ForkJoin pool : leaves accumulate their spectra into one primitive array,
+//inner nodes add the right half into the left => about N / LEAF_SIZE arrays instead of N - 1 intermediate spectra
+//Spectra with a different calibration are rebinned onto the common grid with cached proportional plans, inputs are not modified
+public final class SpectrumSummation {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpectrumSummation.class);
+
+    //Spectra per leaf, below this forking costs more than it saves
+    static final int LEAF_SIZE = 8;
+
+    public enum Operation { SUM, MEAN }
+
+    //Factor per spectrum : NONE 1, SRC_FORCE srcForce (same as normalizeCounts), LIVE_TIME 1 / live time (=> count rates)
+    //LIVE_TIME : SUM = sum of the count rates (counts/s, e.g. several sources measured apart), MEAN = mean count rate
+    //(repeated measurements of one source) ; neither is total counts / total live time
+    public enum Weighting { NONE, SRC_FORCE, LIVE_TIME }
+
+    private SpectrumSummation() {}
+
+    //MEAN = weighted sum / number of spectra
+    public static Spectrum combine(List<Spectrum> spectra, Operation operation, Weighting weighting) {
+        if (spectra == null || spectra.isEmpty()) {
+            throw new IllegalArgumentException("At least one spectrum is required.");
+        }
+        Spectrum first = spectra.getFirst();
+        double[] grid = commonGrid(spectra);
+
+        int n = spectra.size();
+        double[][] counts = new double[n][];
+        double[] weights = new double[n];
+        Rebinning.Plan[] plans = new Rebinning.Plan[n];
+        for (int i = 0; i < n; i++) {
+            Spectrum spec = spectra.get(i);
+            counts[i] = spec.getCounts();
+            weights[i] = weight(spec, weighting);
+            //null => same axis as the grid, added channel by channel
+            plans[i] = Arrays.equals(spec.getEnergy_per_channel(), grid) ? null : Rebinning.plan(spec.getEnergy_per_channel(), grid);
+        }
+
+        double[] result = new SumTask(counts, weights, plans, grid.length, 0, n).invoke();
+        if (operation == Operation.MEAN) {
+            for (int j = 0; j < result.length; j++) result[j] /= n;
+        }
+        logger.info("Combined {} spectra ({}, weighting {}) onto {} channels", n, operation, weighting, grid.length);
+
+        return onGrid(grid, result, first);
+    }
+
+    //Keeps the calibration of template if the grid is its axis, tabulated energies otherwise ; builds one Spectrum
+    static Spectrum onGrid(double[] grid, double[] counts, Spectrum template) {
+        return Arrays.equals(grid, template.getEnergy_per_channel()) && isCalibration(grid, template)
+                ? new Spectrum(counts, template.getEc_offset(), template.getEc_slope(), template.getEc_quad())
+                : new Spectrum(grid, counts);
+    }
+
+    //Grid equals the template's polynomial (same arithmetic as Spectrum), false for tabulated axes like MCNP
+    private static boolean isCalibration(double[] grid, Spectrum template) {
+        double offset = template.getEc_offset(), slope = template.getEc_slope(), quad = template.getEc_quad();
+        for (int c = 0; c < grid.length; c++) {
+            if (grid[c] != offset + slope * (c) + quad * (c * c)) return false;
+        }
+        return true;
+    }
+
+    //Axis of the first spectrum if all share it, otherwise a uniform grid over all of them with the first one's channel count
+    static double[] commonGrid(List<Spectrum> spectra) {
+        double[] firstAxis = spectra.getFirst().getEnergy_per_channel();
+        boolean shared = true;
+        double lowest = Double.POSITIVE_INFINITY;
+        double highest = Double.NEGATIVE_INFINITY;
+        for (Spectrum spec : spectra) {
+            double[] e = spec.getEnergy_per_channel();
+            shared &= Arrays.equals(e, firstAxis);
+            lowest = Math.min(lowest, e[0]);
+            highest = Math.max(highest, e[e.length - 1]);
+        }
+        if (shared) return firstAxis.clone();
+        return Helper.createFittingEnergyLevels(lowest, highest, firstAxis.length);
+    }
+
+    private static double weight(Spectrum spec, Weighting weighting) {
+        return switch (weighting) {
+            case NONE -> 1.0;
+            case SRC_FORCE -> spec.getSrcForce();
+            case LIVE_TIME -> {
+                if (!(spec.getLiveTime() > 0)) {
+                    throw new IllegalArgumentException("Spectrum " + spec.getName() + " has no live time.");
+                }
+                yield 1.0 / spec.getLiveTime();
+            }
+        };
+    }
+
+    //Sum of the spectra [from, to) on the grid
+    private static final class SumTask extends RecursiveTask<double[]> {
+        private final double[][] counts;
+        private final double[] weights;
+        private final Rebinning.Plan[] plans;
+        private final int channels;
+        private final int from;
+        private final int to;
+
+        SumTask(double[][] counts, double[] weights, Rebinning.Plan[] plans, int channels, int from, int to) {
+            this.counts = counts;
+            this.weights = weights;
+            this.plans = plans;
+            this.channels = channels;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected double[] compute() {
+            if (to - from <= LEAF_SIZE) {
+                double[] acc = new double[channels];
+                for (int i = from; i < to; i++) {
+                    if (plans[i] != null) {
+                        plans[i].apply(counts[i], weights[i], acc);
+                    } else {
+                        double w = weights[i];
+                        double[] c = counts[i];
+                        for (int j = 0; j < channels; j++) acc[j] += w * c[j];
+                    }
+                }
+                return acc;
+            }
+            int mid = (from + to) >>> 1;
+            SumTask left = new SumTask(counts, weights, plans, channels, from, mid);
+            left.fork();
+            double[] right = new SumTask(counts, weights, plans, channels, mid, to).compute();
+            double[] acc = left.join();
+            for (int j = 0; j < channels; j++) acc[j] += right[j];
+            return acc;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package de.aint.operations.fitters;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//Keeps the converged ALS state per spectrum, so re-estimating with nearby lambda / p starts from the previous peak mask
+//instead of all-ones weights and converges in one or two iterations
+public final class AlsWarmStart {
+
+    //Number of spectra whose state is kept (LRU)
+    static final int MAX_SPECTRA = 16;
+    //Parameters are "nearby" if they differ at most by this factor
+    static final double MAX_LAMBDA_RATIO = 10.0;
+    static final double MAX_P_RATIO = 10.0;
+
+    //coldIterations = iterations the last solve from all-ones weights needed, baseline for saved iterations
+    private record State(double[] counts, double lambda, double p, double[] background, int coldIterations) {}
+
+    public record Result(double[] background, int iterations, int iterationsSaved, boolean warmStarted) {}
+
+    //Keyed by content hash of the counts, spectra are re-created from the DB for every request
+    private static final Map<Integer, State> states = Collections.synchronizedMap(
+            new LinkedHashMap<>(MAX_SPECTRA, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, State> eldest) {
+                    return size() > MAX_SPECTRA;
+                }
+            });
+
+    private AlsWarmStart() {}
+
+    public static Result estimate(double[] counts, double lambda, double p, int maxIter) {
+        int n = counts.length;
+        int key = Arrays.hashCode(counts);
+        State prev = states.get(key);
+        if (prev != null && !Arrays.equals(prev.counts(), counts)) prev = null; //hash collision
+
+        //Seed mask from the previous solution, recomputed for the new p
+        double[] weights = new double[n];
+        boolean warm = prev != null && isNearby(prev, lambda, p);
+        if (warm) {
+            double[] prevBackground = prev.background();
+            for (int i = 0; i < n; i++) {
+                weights[i] = counts[i] > prevBackground[i] ? p : 1.0 - p;
+            }
+        } else {
+            Arrays.fill(weights, 1.0);
+        }
+
+        double[] background = new double[n];
+        int iterations = FitterHelper.runAls(counts, p, maxIter, new PentadiagonalSolver(n, lambda), weights, background);
+
+        int coldIterations = warm ? prev.coldIterations() : iterations;
+        double[] storedCounts = prev != null ? prev.counts() : counts.clone();
+        states.put(key, new State(storedCounts, lambda, p, background.clone(), coldIterations));
+
+        return new Result(background, iterations, Math.max(0, coldIterations - iterations), warm);
+    }
+
+    public static void clear() {
+        states.clear();
+    }
+
+    private static boolean isNearby(State prev, double lambda, double p) {
+        double lambdaRatio = Math.max(lambda, prev.lambda()) / Math.min(lambda, prev.lambda());
+        double pRatio = Math.max(p, prev.p()) / Math.min(p, prev.p());
+        return lambdaRatio <= MAX_LAMBDA_RATIO && pRatio <= MAX_P_RATIO;
+    }
+}
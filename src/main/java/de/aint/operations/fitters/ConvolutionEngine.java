@@ -0,0 +1,69 @@
+package de.aint.operations.fitters;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+//Shared convolution for all smoothing filters (SG, Gauss)
+//Signal is padded once with mirrored edges, so the tap loop has no boundary branches
+//Tap loop runs on the Vector API (DoubleVector lanes) if jdk.incubator.vector is available, scalar otherwise
+public final class ConvolutionEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConvolutionEngine.class);
+
+    private static final boolean VECTORIZED = detectVectorSupport();
+
+    private ConvolutionEngine() {}
+
+    private static boolean detectVectorSupport() {
+        try {
+            int lanes = VectorConvolution.lanes();
+            logger.info("Convolution engine uses Vector API with {} double lanes", lanes);
+            return lanes > 1;
+        } catch (LinkageError e) {
+            //NoClassDefFoundError if started without --add-modules jdk.incubator.vector
+            logger.info("Vector API not available ({}), convolution engine uses scalar loop", e.toString());
+            return false;
+        }
+    }
+
+    public static boolean isVectorized() {
+        return VECTORIZED;
+    }
+
+    //Centered convolution, kernel length has to be odd
+    public static double[] convolve(double[] signal, Kernel kernel) {
+        double[] out = new double[signal.length];
+        convolve(signal, kernel.weights(), out, VECTORIZED);
+        return out;
+    }
+
+    static void convolve(double[] signal, double[] kernel, double[] out, boolean vectorized) {
+        double[] padded = pad(signal, kernel.length / 2);
+        if (vectorized) {
+            VectorConvolution.convolve(padded, kernel, out);
+        } else {
+            convolveScalar(padded, kernel, out);
+        }
+    }
+
+    private static void convolveScalar(double[] padded, double[] kernel, double[] out) {
+        int taps = kernel.length;
+        for (int i = 0; i < out.length; i++) {
+            double sum = 0.0;
+            for (int k = 0; k < taps; k++) sum += padded[i + k] * kernel[k];
+            out[i] = sum;
+        }
+    }
+
+    //Mirrors the edges like FitterHelper.mirrorIndex, clamped for kernels wider than the signal
+    private static double[] pad(double[] signal, int half) {
+        int n = signal.length;
+        double[] padded = new double[n + 2 * half];
+        System.arraycopy(signal, 0, padded, half, n);
+        for (int j = 0; j < half; j++) {
+            padded[half - 1 - j] = signal[Math.min(n - 1, j)];
+            padded[half + n + j] = signal[Math.max(0, n - 1 - j)];
+        }
+        return padded;
+    }
+}
@@ -0,0 +1,97 @@
+package de.aint.operations.fitters;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+//Wall-clock and evaluation budget for peak fitting, one instance per request (shared by all its ROI fits, thread safe)
+//Request limits cover all fits together, ROI limits every single fit ; 0 => unlimited
+public final class FitBudget {
+
+    public record Limits(long requestMillis, long requestEvaluations, long roiMillis, int roiEvaluations) {}
+
+    //Which limit stopped a fit
+    enum Exhausted { NONE, ROI, REQUEST }
+
+    private static volatile Limits defaults = new Limits(0, 0, 0, 0);
+
+    //Exhaustion counts since startup, exposed as metrics
+    private static final AtomicLong roiExhausted = new AtomicLong();
+    private static final AtomicLong requestExhausted = new AtomicLong();
+    private static final AtomicLong notConverged = new AtomicLong();
+
+    private final Limits limits;
+    private final long requestDeadline;
+    private final AtomicLong remainingEvaluations;
+
+    private FitBudget(Limits limits) {
+        this.limits = limits;
+        this.requestDeadline = limits.requestMillis() > 0 ? System.nanoTime() + limits.requestMillis() * 1_000_000L : Long.MAX_VALUE;
+        this.remainingEvaluations = limits.requestEvaluations() > 0 ? new AtomicLong(limits.requestEvaluations()) : null;
+    }
+
+    //New budget with the configured default limits, starts now
+    public static FitBudget forRequest() {
+        return new FitBudget(defaults);
+    }
+
+    public static FitBudget of(Limits limits) {
+        return new FitBudget(limits);
+    }
+
+    public static FitBudget unlimited() {
+        return new FitBudget(new Limits(0, 0, 0, 0));
+    }
+
+    public static void configureDefaults(Limits limits) {
+        defaults = limits;
+    }
+
+    public static Limits getDefaults() {
+        return defaults;
+    }
+
+    public static long getRoiExhaustedCount() {
+        return roiExhausted.get();
+    }
+
+    public static long getRequestExhaustedCount() {
+        return requestExhausted.get();
+    }
+
+    public static long getNotConvergedCount() {
+        return notConverged.get();
+    }
+
+    //Deadline of a fit starting now (nanoTime), never later than the request deadline
+    long roiDeadline() {
+        if (limits.roiMillis() <= 0) return requestDeadline;
+        return Math.min(requestDeadline, System.nanoTime() + limits.roiMillis() * 1_000_000L);
+    }
+
+    //Evaluation cap of one fit, the solver's own cap applies if it is lower
+    int roiEvaluations(int solverCap) {
+        return limits.roiEvaluations() > 0 ? Math.min(limits.roiEvaluations(), solverCap) : solverCap;
+    }
+
+    //Checked before every model evaluation of a fit, takes one evaluation from the request pool if allowed
+    //The fit stops at the first non-NONE answer, so each exhausted fit is counted once
+    Exhausted beforeEvaluation(int evaluations, int roiMaxEvaluations, long roiDeadline) {
+        long now = System.nanoTime();
+        if (passed(now, requestDeadline) || (remainingEvaluations != null && remainingEvaluations.getAndDecrement() <= 0)) {
+            requestExhausted.incrementAndGet();
+            return Exhausted.REQUEST;
+        }
+        if (evaluations >= roiMaxEvaluations || passed(now, roiDeadline)) {
+            roiExhausted.incrementAndGet();
+            return Exhausted.ROI;
+        }
+        return Exhausted.NONE;
+    }
+
+    private static boolean passed(long now, long deadline) {
+        return deadline != Long.MAX_VALUE && now - deadline > 0;
+    }
+
+    static void recordNotConverged() {
+        notConverged.incrementAndGet();
+    }
+}
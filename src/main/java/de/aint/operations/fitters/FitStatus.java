@@ -0,0 +1,10 @@
+package de.aint.operations.fitters;
+
+//Outcome of a peak fit, params are the best found so far in every case
+public enum FitStatus {
+    CONVERGED,
+    //Iteration limit reached before the convergence criteria
+    NOT_CONVERGED,
+    //Stopped by the ROI or request budget (time / evaluations), not converged
+    BUDGET_EXHAUSTED
+}
@@ -6,19 +6,12 @@ import java.util.ArrayList;
 
 import org.apache.commons.math3.fitting.GaussianCurveFitter;
 import org.apache.commons.math3.fitting.WeightedObservedPoint;
-import org.apache.commons.math3.linear.ArrayRealVector;
-import org.apache.commons.math3.linear.CholeskyDecomposition;
-import org.apache.commons.math3.linear.DecompositionSolver;
-import org.apache.commons.math3.linear.MatrixUtils;
-import org.apache.commons.math3.linear.RealMatrix;
-import org.apache.commons.math3.linear.RealVector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.aint.libraries.SmoothingLib;
 import de.aint.models.ROI;
 import de.aint.models.Spectrum;
-import de.aint.operations.Helper;
 
 
 
@@ -34,6 +27,7 @@ public abstract class Fitter {
 //INTERFACE FOR PEAK-FITTING ALGORITHMS
 interface PeakFitAlgo {
     double[] fit(ROI roi);
+    LMPeakFitting.Result fit(ROI roi, FitBudget budget);
 }
 
 
@@ -57,6 +51,30 @@ public enum BackgroundFitAlgos implements FitAlgo {
         public double[] fit(FittingData data) {
             return RunAlgos.estimateBackgroundUsingFastALS(data);
         }
+    },
+    ALS_WARM{
+        @Override
+        public double[] fit(FittingData data) {
+            return RunAlgos.estimateBackgroundUsingWarmALS(data);
+        }
+    },
+    ALS_MULTIRES{
+        @Override
+        public double[] fit(FittingData data) {
+            return RunAlgos.estimateBackgroundUsingMultiResALS(data);
+        }
+    },
+    ALS_PARALLEL{
+        @Override
+        public double[] fit(FittingData data) {
+            return RunAlgos.estimateBackgroundUsingParallelALS(data);
+        }
+    },
+    SNIP{
+        @Override
+        public double[] fit(FittingData data) {
+            return RunAlgos.estimateBackgroundUsingSNIP(data);
+        }
     }
 
 
@@ -76,6 +94,12 @@ public enum SmoothingFitAlgos implements FitAlgo {
         public double[] fit(FittingData data) {
             return RunAlgos.smoothSpectrumUsingGauss(data);
         }
+    },
+    GAUSS_RECURSIVE{
+        @Override
+        public double[] fit(FittingData data) {
+            return RunAlgos.smoothSpectrumUsingRecursiveGauss(data);
+        }
     }
 
 }
@@ -87,7 +111,11 @@ public enum PeakFitAlgos implements PeakFitAlgo {
     GAUSSLM{
         @Override
         public double[] fit(ROI roi) {
-            return RunAlgos.fitGaussToROIUsingLM(roi);
+            return RunAlgos.fitGaussToROIUsingLM(roi, FitBudget.unlimited()).params();
+        }
+        @Override
+        public LMPeakFitting.Result fit(ROI roi, FitBudget budget) {
+            return RunAlgos.fitGaussToROIUsingLM(roi, budget);
         }
     }
 
@@ -98,39 +126,19 @@ private static class RunAlgos{
 
     //=================================================LM-GAUSS-PEAK-FITTER==================================================
     // !!! return params [B, sigma, A1, mu1, T1, G1, ..., An, mun, Tn, Gn] !!!
-    public static double[] fitGaussToROIUsingLM(ROI roi){
-
-        //Prepare ROI for Gauss fitting
-        if(roi.getSpectrum().getBackgroundCounts() == null || roi.getSpectrum().getBackgroundCounts().length == 0) roi.getSpectrum().setBackgroundCounts();
-        int channelBeg = Helper.findChannelFromEnergy(roi.getStartEnergy(), roi.getSpectrum().getEnergy_per_channel());
-        int channelEnd = Helper.findChannelFromEnergy(roi.getEndEnergy(), roi.getSpectrum().getEnergy_per_channel());
-        double[] E = Arrays.copyOfRange(roi.getSpectrum().getEnergy_per_channel(), channelBeg, channelEnd+1);
-        double[] y = Arrays.copyOfRange(roi.getSpectrum().getCounts(), channelBeg, channelEnd+1);
-        double[] background = Arrays.copyOfRange(roi.getSpectrum().getBackgroundCounts(), channelBeg, channelEnd+1);
-
-        //Guess initial Parameters
-        double[] start = new double[2 + 5 * (roi.getPeaks().length)];
-        double[] muSet = new double[roi.getPeaks().length];
-        double[] Aset = new double[roi.getPeaks().length];
-        start[0] = (background[0]+background[background.length-1]) / 2 ; //Baseline
-        start[1] = roi.getSpectrum().getFwhmForNumber(Helper.findChannelFromEnergy(roi.getPeaks()[0].getPeakCenter(), roi.getSpectrum().getEnergy_per_channel())) / 2.35; //Sigma
-        for (int i = 0; i < roi.getPeaks().length; i++) {
-            start[2 + 5 * i] = roi.getSpectrum().getCounts()[Helper.findChannelFromEnergy(roi.getPeaks()[i].getPeakCenter(), roi.getSpectrum().getEnergy_per_channel())]-start[0]; //Amplitude
-            Aset[i] = roi.getSpectrum().getCounts()[Helper.findChannelFromEnergy(roi.getPeaks()[i].getPeakCenter(), roi.getSpectrum().getEnergy_per_channel())]-start[0];
-            start[3 + 5 * i] = roi.getPeaks()[i].getPeakCenter(); //Mu
-            muSet[i] = roi.getPeaks()[i].getPeakCenter(); //Store mu for projection
-            start[4 + 5 * i] = 0.5; //Relative Tailing Amplitude
-            start[5 + 5 * i] = 1.5; //Gradient of Tailing
-            start[6 + 5 * i] = 0.05; //Tailing Amplitude
-        }
+    public static LMPeakFitting.Result fitGaussToROIUsingLM(ROI roi, FitBudget budget){
 
-        
-        double bSet = (background[0]+background[background.length-1]) / 2;
+        //Prepare ROI for Gauss fitting (background is shared by all ROIs of the spectrum)
+        LMPeakFitting.RoiProblem problem = LMPeakFitting.prepare(roi);
         int maxIter = 100;
 
         logger.info("Fitting Gaussian to ROI with {} peaks", roi.getPeaks().length);
 
-        return LMPeakFitting.fit(E, y, start, maxIter, bSet, muSet, Aset, LMPeakFitting.calculateWeight(E, y, muSet, 4.5, 2.0, start[1]));
+        LMPeakFitting.Result result = LMPeakFitting.fit(problem.E(), problem.y(), problem.start(), maxIter, problem.bSet(), problem.muSet(), problem.Aset(), problem.w(), budget);
+        if (result.status() != FitStatus.CONVERGED) {
+            logger.warn("ROI from {} keV to {} keV not converged ({}) after {} evaluations", roi.getStartEnergy(), roi.getEndEnergy(), result.status(), result.evaluations());
+        }
+        return result;
 
     }
 
@@ -148,21 +156,72 @@ private static class RunAlgos{
         int windowSize = 2 * radius + 1;
 
         double[] counts = spec.getCounts();
-        double[] newCounts = new double[counts.length];
-        double[] kernel = FitterHelper.createGaussKernel(sigma, windowSize);
-        
-        for(int i = 0; i < counts.length; i++){
-            double smoothedValue = 0.0;
-            for(int j = i-radius; j <= i+radius; j++){
-                int index = FitterHelper.mirrorIndex(j, counts.length);
-                smoothedValue += counts[index] * kernel[j - (i-radius)];
-            }
-            newCounts[i] = smoothedValue;
-        }
+        Kernel kernel = KernelCache.gauss(sigma, windowSize);
+        double[] newCounts = ConvolutionEngine.convolve(counts, kernel);
         logger.info("Smoothed spectrum using Gaussian with sigma {}", sigma);
         return newCounts;
     }
 
+    //==============================================GAUSS_RECURSIVE==========================================================
+    //Young - van Vliet recursive (IIR) Gaussian : causal + anti-causal 3rd order pass, cost per channel independent of sigma
+    //Edges are mirrored over ~4 sigma (once per spectrum, not per channel)
+
+    private static double[] smoothSpectrumUsingRecursiveGauss(FittingData data) {
+        Spectrum spec = data.spectrum;
+        double sigma = data.gaussSigma;
+        double[] counts = spec.getCounts();
+        int cntLen = counts.length;
+
+        if(sigma <= 0) {
+            return counts; // Return original counts if sigma is not positive
+        }
+        //Approximation is only valid for sigma >= 0.5, narrow kernels are cheap to convolve directly anyway
+        if(sigma < 0.5 || cntLen < 4) {
+            return smoothSpectrumUsingGauss(data);
+        }
+
+        //Coefficients (Young & van Vliet 1995)
+        double q = sigma >= 2.5 ? 0.98711 * sigma - 0.96330 : 3.97156 - 4.14554 * Math.sqrt(1 - 0.26891 * sigma);
+        double q2 = q * q;
+        double q3 = q2 * q;
+        double b0 = 1.57825 + 2.44413 * q + 1.4281 * q2 + 0.422205 * q3;
+        double b1 = (2.44413 * q + 2.85619 * q2 + 1.26661 * q3) / b0;
+        double b2 = -(1.4281 * q2 + 1.26661 * q3) / b0;
+        double b3 = (0.422205 * q3) / b0;
+        double B = 1.0 - (b1 + b2 + b3);
+
+        //Mirrored padding
+        int pad = Math.min(cntLen, (int) Math.ceil(4 * sigma));
+        int len = cntLen + 2 * pad;
+        double[] w = new double[len];
+        for(int i = 0; i < len; i++){
+            w[i] = counts[FitterHelper.mirrorIndex(i - pad, cntLen)];
+        }
+
+        //Causal pass, history initialized with the first sample (steady state)
+        double w1 = w[0], w2 = w[0], w3 = w[0];
+        for(int i = 0; i < len; i++){
+            double v = B * w[i] + b1 * w1 + b2 * w2 + b3 * w3;
+            w3 = w2;
+            w2 = w1;
+            w1 = v;
+            w[i] = v;
+        }
+        //Anti-causal pass
+        double y1 = w[len - 1], y2 = w[len - 1], y3 = w[len - 1];
+        for(int i = len - 1; i >= 0; i--){
+            double v = B * w[i] + b1 * y1 + b2 * y2 + b3 * y3;
+            y3 = y2;
+            y2 = y1;
+            y1 = v;
+            w[i] = v;
+        }
+
+        double[] newCounts = Arrays.copyOfRange(w, pad, pad + cntLen);
+        logger.info("Smoothed spectrum using recursive Gaussian with sigma {}", sigma);
+        return newCounts;
+    }
+
     //=======================================================SG=============================================================
 
     private static double[] smoothSpectrumUsingSG(FittingData data) {
@@ -176,34 +235,29 @@ private static class RunAlgos{
         if(window_size % 2 == 0){
             window_size++;
         }
-        //Declare some variables
-        double[] smoothed_counts = new double[spec.getChannel_count()];
+        //Declare some variables, all buffers are allocated once per call
         double[] counts = spec.getCounts();
+        int cntLen = counts.length;
+        double[] smoothed_counts = new double[cntLen];
+        boolean[] outliers = eraseOutliers ? new boolean[cntLen] : null;
+        int[] dequeBuffer = eraseOutliers ? new int[2 * cntLen] : null;
         int half_window = (window_size-1)/2;
         //Iterations begin
         for(int iters = 0; iters < iter; iters++){
-            //If window size is too small, return original spectrum
+            //If window size is too small, return original spectrum (or the last pass)
             if(window_size < 3) {
-                return smoothed_counts;
+                return iters == 0 ? counts.clone() : smoothed_counts;
             }
-            //Declare variables
-
-            double[] weight = FitterHelper.createSavitzkyGolayKernel(window_size, polynomial_degree);
-            //Smooth spectrum
-            for(int i = 0; i<spec.getChannel_count(); i++){
-                double count = 0;
-                //Check for false peaks
-                if(eraseOutliers && FitterHelper.exceedsStandardDeviation(Arrays.copyOfRange(counts, Math.max(i-half_window, 0), Math.min(i+half_window+1, counts.length-1)), 5f)){
-                    smoothed_counts[i] = counts[i];
-                    continue;
-                }
-                double[] window = new double[window_size];
-                window = Arrays.copyOfRange(counts, Math.max(i-half_window, 0), Math.min(i+half_window+1, counts.length-1));
-                for(int j = -half_window; j<=half_window; j++){
-                    count += counts[FitterHelper.mirrorIndex(i+j, counts.length)] * weight[FitterHelper.mirrorIndex(j+half_window, weight.length)];
-                }
-                smoothed_counts[i] = count;
-                //half_window++;
+            //Kernel is shared through the cache, not rebuilt per pass / request
+            Kernel weight = KernelCache.savitzkyGolay(window_size, polynomial_degree);
+            //Check for false peaks : rolling mean / std over the window instead of a copy per channel
+            if(eraseOutliers){
+                FitterHelper.markOutlierWindows(counts, half_window, 5f, outliers, dequeBuffer);
+            }
+            //Smooth spectrum : mirrored edges, shared (vectorized) convolution engine
+            double[] convolved = ConvolutionEngine.convolve(counts, weight);
+            for(int i = 0; i < cntLen; i++){
+                smoothed_counts[i] = (eraseOutliers && outliers[i]) ? counts[i] : convolved[i];
             }
 
             //Lessen Winow size to avoid overshooting
@@ -227,38 +281,43 @@ private static class RunAlgos{
         //initialize weights
         double[] weights = new double[cntLen];
         Arrays.fill(weights, 1.0);
-        //Build curvature penalty matrix
-        RealMatrix curvaturePenalty = FitterHelper.buildCurvaturePenalty(cntLen, data.lambda);
-
-        for(int iter = 0; iter < data.maxIter; iter++) {
-            //Create diagonal matrix W with weights
-            RealMatrix Weights = MatrixUtils.createRealDiagonalMatrix(weights);
-            // A = Weights + curvature penalty
-            RealMatrix A = Weights.add(curvaturePenalty);
-            //Calculate counts * weight
-            double[] weighted_counts = new double[cntLen];
-            for (int i = 0; i < cntLen; i++){ 
-                weighted_counts[i] = weights[i] * counts[i];
-                
-            }
-            RealVector weighted_counts_Vec = new ArrayRealVector(weighted_counts);
-            //Solve the system of equations cholesky cuz A is symmetric and positive for sure
-            DecompositionSolver solver = new CholeskyDecomposition(A).getSolver();
-            RealVector background_Vec = solver.solve(weighted_counts_Vec);
-            background = background_Vec.toArray();
-            //Calculate new weights based on the difference between estimated background and counts
-            //Break if weights do not change significantly
-            double delta = 0.0;
-            double[] newWeights = new double[cntLen];
-            for (int i = 0; i < cntLen; i++) {
-                newWeights[i] = counts[i] > background[i] ? data.p : 1.0 - data.p; //Above background -> weight low and opposite -> "ignore peak"
-                delta += Math.abs(newWeights[i] - weights[i]);
-            }
-            weights = newWeights;
-            if (delta < 1e-6) break;
+        //Banded solver for weights + curvature penalty, buffers are reused each iteration
+        PentadiagonalSolver solver = new PentadiagonalSolver(cntLen, data.lambda);
 
-        }
-        logger.info("Estimated background using ALS");
+        int iters = FitterHelper.runAls(counts, data.p, data.maxIter, solver, weights, background);
+        logger.info("Estimated background using ALS in {} iterations", iters);
+        return background;
+    }
+
+    //=========================================WARM_ALS=============================================================================
+    //Seeds from the last converged state of the same spectrum, iterations (saved) are written back to data
+
+    private static double[] estimateBackgroundUsingWarmALS(FittingData data) {
+        AlsWarmStart.Result result = AlsWarmStart.estimate(data.spectrum.getCounts(), data.lambda, data.p, data.maxIter);
+        data.iterations = result.iterations();
+        data.iterationsSaved = result.iterationsSaved();
+        logger.info("Estimated background using {} ALS in {} iterations ({} saved)",
+                result.warmStarted() ? "warm-started" : "cold", result.iterations(), result.iterationsSaved());
+        return result.background();
+    }
+
+    //=======================================MULTIRES_ALS===========================================================================
+    //Peak mask from a binFactor x binned solve, then refineIter full-resolution iterations
+
+    private static double[] estimateBackgroundUsingMultiResALS(FittingData data) {
+        double[] background = MultiResolutionAls.estimate(data.spectrum.getCounts(), data.lambda, data.p, data.maxIter, data.binFactor, data.refineIter);
+        logger.info("Estimated background using multi-resolution ALS (bin factor {})", data.binFactor);
+        return background;
+    }
+
+    //=======================================PARALLEL_ALS===========================================================================
+    //Overlapping segments of segmentSize channels solved on the ForkJoin pool, blended across segmentOverlap
+
+    private static double[] estimateBackgroundUsingParallelALS(FittingData data) {
+        double[] background = SegmentedAls.estimate(data.spectrum.getCounts(), data.lambda, data.p, data.maxIter, data.segmentSize, data.segmentOverlap);
+        //Same output as ALS_FAST, long spectra are routed here by default and they are the ones reaching above 10 MeV
+        FitterHelper.clearHighEnergyTail(background, data.spectrum.getEnergy_per_channel());
+        logger.info("Estimated background using parallel ALS (segment size {}, overlap {})", data.segmentSize, data.segmentOverlap);
         return background;
     }
 
@@ -267,40 +326,28 @@ private static class RunAlgos{
     private static double[] estimateBackgroundUsingARPLS(FittingData data) {
         double[] counts = data.spectrum.getCounts();
         int cntLen = counts.length;
-        //Create count vector for matrix multiplication
-        RealVector CountsVec = new ArrayRealVector(counts);
-        //Create second derivative matrix for curvature estimation
-        RealMatrix SecondDerivat = FitterHelper.createSecondDerivativeMatrix(cntLen);
-        //penalty term for curvature
-        RealMatrix CurvaturePenalty = FitterHelper.buildCurvaturePenalty(cntLen, data.lambda);
+        //Banded solver for weights + curvature penalty, buffers are reused each iteration
+        PentadiagonalSolver solver = new PentadiagonalSolver(cntLen, data.lambda);
         //Initialize weights w/1 since no peaks r known
         double[] weights = new double[cntLen];
-        for (int i = 0; i < cntLen; i++) weights[i] = 1.0;
+        Arrays.fill(weights, 1.0);
+        double[] newWeights = new double[cntLen];
         //initialize estimated Background
-        RealVector background = new ArrayRealVector(cntLen);
+        double[] background = new double[cntLen];
 
         //Iterate until convergence or max iterations reached
         for (int iter = 0; iter < data.maxIter; iter++) {
-            //Diagonal matrix W with weights // peaks are weighted less
-            RealMatrix W = MatrixUtils.createRealDiagonalMatrix(weights);
-            //Create the system of equations : aims to balance penalty minimization and fit to data
-            RealMatrix A = W.add(CurvaturePenalty);
-            //Takes forever!!!! ~2min each iteration :(
-            DecompositionSolver solver = new CholeskyDecomposition(A).getSolver();
-            RealVector Wy = CountsVec.ebeMultiply(new ArrayRealVector(weights));
-            //Estimates new background
-            background = solver.solve(Wy);
+            //Solve (W + penalty) * background = W * counts // peaks are weighted less
+            solver.solve(weights, counts, background);
             //Calculate new weights based on the difference between estimated background and counts
-            //d = CountsVec - background so, where is spectrum above background, d is positive
-            RealVector d = CountsVec.subtract(background);
-            double[] differenceCountsToBackground = d.toArray();
-            //Calculate weights based on the difference
+            //d = counts - background so, where is spectrum above background, d is positive
             //initialize mean and std for negative values
             double meanNeg = 0.0;
             double stdNeg = 0.0;
             int countNeg = 0;
             //Only consider negative values for std and mean // weights are calculated based on the negative values since peaks are ignored
-            for (double v : differenceCountsToBackground) {
+            for (int i = 0; i < cntLen; i++) {
+                double v = counts[i] - background[i];
                 if (v < 0) {
                     meanNeg += v;
                     countNeg++;
@@ -310,51 +357,77 @@ private static class RunAlgos{
             if (countNeg > 0) {
                 meanNeg /= countNeg;
                 //Calculate standard deviation of negative values
-                for (double v : differenceCountsToBackground) {
+                for (int i = 0; i < cntLen; i++) {
+                    double v = counts[i] - background[i];
                     if (v < 0) {
-                        stdNeg += Math.pow(v - meanNeg, 2);
+                        stdNeg += (v - meanNeg) * (v - meanNeg);
                     }
                 }
                 stdNeg = Math.sqrt(stdNeg / countNeg);
             }
-            //Initialize new weights
-            //If stdNeg is 0, it means no negative values, so we can skip weight calculation
-            double[] newWeights = new double[cntLen];
-            if (stdNeg == 0) { newWeights = Arrays.copyOf(weights, weights.length); }
-            else {
-                for (int i = 0; i < cntLen; i++) {
-                    //If the difference is negative it means the count is below the background, so we increase the weight
-                    //oppsoite for positive values
-                    newWeights[i] = 1.0 / (1.0 + Math.exp(2.0 * (differenceCountsToBackground[i] - (2 * stdNeg - meanNeg)) / stdNeg));
-                }
-            }
+            //If stdNeg is 0, it means no negative values, so weights stay the same and we are converged
+            if (stdNeg == 0) break;
             //Check breakoff term : if values of weights do not change significantly, we can stop iterating
             double diff = 0.0;
             for (int i = 0; i < cntLen; i++) {
+                //If the difference is negative it means the count is below the background, so we increase the weight
+                //oppsoite for positive values
+                newWeights[i] = 1.0 / (1.0 + Math.exp(2.0 * ((counts[i] - background[i]) - (2 * stdNeg - meanNeg)) / stdNeg));
                 diff += Math.abs(weights[i] - newWeights[i]);
             }
             diff /= cntLen;
             if (diff < data.p) break;
+            //Swap buffers instead of allocating new weights
+            double[] tmp = weights;
             weights = newWeights;
+            newWeights = tmp;
         }
         logger.info("Estimated background using ARPLS");
-        return background.toArray();
+        return background;
     }
 
 
+    //============================================SNIP===============================================================================
+    //Statistics-sensitive non-linear iterative peak clipping, O(n * window) without a linear solve
+    //LLS transform => clip with decreasing window (snipWindow .. 1) => inverse LLS
+
+    private static double[] estimateBackgroundUsingSNIP(FittingData data) {
+        double[] counts = data.spectrum.getCounts();
+        int cntLen = counts.length;
+        int window = Math.min(data.snipWindow, (cntLen - 1) / 2);
+        //Only buffers of the whole algorithm : transformed spectrum (becomes the result) + clipping work buffer
+        double[] v = new double[cntLen];
+        double[] work = new double[cntLen];
+
+        //LLS operator compresses the dynamic range, so small peaks on a large continuum are clipped as well
+        for (int i = 0; i < cntLen; i++) {
+            v[i] = Math.log(Math.log(Math.sqrt(Math.max(counts[i], 0) + 1) + 1) + 1);
+        }
+
+        for (int p = window; p >= 1; p--) {
+            for (int i = p; i < cntLen - p; i++) {
+                double mean = 0.5 * (v[i - p] + v[i + p]);
+                work[i] = Math.min(v[i], mean);
+            }
+            System.arraycopy(work, p, v, p, cntLen - 2 * p);
+        }
+
+        //Inverse LLS
+        for (int i = 0; i < cntLen; i++) {
+            double e = Math.exp(Math.exp(v[i]) - 1) - 1;
+            v[i] = e * e - 1;
+        }
+        logger.info("Estimated background using SNIP with window {}", window);
+        return v;
+    }
+
     //==========================================FAST_ALS===================================================================
 
     private static double[] estimateBackgroundUsingFastALS(FittingData data) {
         double[] background = new double[data.spectrum.getCounts().length];
         SmoothingLib.INSTANCE.estimate_background_als(data.spectrum.getCounts(), data.spectrum.getCounts().length, data.lambda, data.p, data.maxIter, background);
-        //Cancel weird formation since y axis is log in display
-        double[] energy = data.spectrum.getEnergy_per_channel();
-        for(int i = 0; i < background.length; i++) {
-            if (background[i] < 0.2 && energy[i] > 10000) {
-                background[i] = 0; // Avoid log(0)
-            }
-        }
-        logger.info("Estimated background using Fast ALS");
+        FitterHelper.clearHighEnergyTail(background, data.spectrum.getEnergy_per_channel());
+        logger.info("Estimated background using Fast ALS ({})", SmoothingLib.INSTANCE.getBackendName());
         return background;
     }
 
@@ -7,33 +7,52 @@ import org.apache.commons.math3.linear.RealMatrix;
 
 public abstract class FitterHelper {
 
-    //Func to build curvature penalty matrix for background estimation, outsorced to save ram
-    public static RealMatrix buildCurvaturePenalty(int n, double lambda) {
-    RealMatrix penalty = new Array2DRowRealMatrix(n, n);
-
-    for (int i = 0; i < n; i++) {
-        penalty.addToEntry(i, i, 6.0 * lambda);  //Main diagonal
-        if (i > 0) penalty.addToEntry(i, i - 1, -4.0 * lambda); //diagonal left
-        if (i < n - 1) penalty.addToEntry(i, i + 1, -4.0 * lambda); //diagonal right
-        if (i > 1) penalty.addToEntry(i, i - 2, 1.0 * lambda);  //second left
-        if (i < n - 2) penalty.addToEntry(i, i + 2, 1.0 * lambda);  //second right
-    }
+    //Func to build curvature penalty bands for background estimation : [main diagonal, first off-diagonal, second off-diagonal]
+    //Only the bands are stored, the dense n x n matrix (~512MB for 8k channels) is never built
+    public static double[][] buildCurvaturePenaltyBands(int n, double lambda) {
+        double[] diag = new double[n];
+        double[] off1 = new double[n];
+        double[] off2 = new double[n];
+
+        for (int i = 0; i < n; i++) {
+            diag[i] = 6.0 * lambda;                   //Main diagonal
+            if (i < n - 1) off1[i] = -4.0 * lambda;   //diagonal left / right
+            if (i < n - 2) off2[i] = 1.0 * lambda;    //second left / right
+        }
 
-    return penalty;
+        return new double[][]{diag, off1, off2};
     }
 
+    //Asymmetric least squares on a reusable banded solver
+    //weights are used as starting mask and hold the converged mask afterwards, background is written to out
+    //returns number of iterations run
+    public static int runAls(double[] counts, double p, int maxIter, PentadiagonalSolver solver, double[] weights, double[] out) {
+        int cntLen = counts.length;
+        int iter = 0;
+        while (iter < maxIter) {
+            iter++;
+            solver.solve(weights, counts, out);
+            //Calculate new weights based on the difference between estimated background and counts
+            //Break if weights do not change significantly
+            double delta = 0.0;
+            for (int i = 0; i < cntLen; i++) {
+                double newWeight = counts[i] > out[i] ? p : 1.0 - p; //Above background -> weight low and opposite -> "ignore peak"
+                delta += Math.abs(newWeight - weights[i]);
+                weights[i] = newWeight;
+            }
+            if (delta < 1e-6) break;
+        }
+        return iter;
+    }
 
-    //Func to create second derivative matrix for background estimation / curvature of spectrum
-    public static RealMatrix createSecondDerivativeMatrix(int n) {
-        int rows = n - 2;
-        RealMatrix D = new Array2DRowRealMatrix(rows, n);
-
-        for (int i = 0; i < rows; i++) {
-            D.setEntry(i, i, 1.0);
-            D.setEntry(i, i + 1, -2.0);
-            D.setEntry(i, i + 2, 1.0);
+    //Cancel weird formation since y axis is log in display : background < 0.2 above 10 MeV => 0
+    //Post-step of the default background paths (ALS_FAST, ALS_PARALLEL), in place
+    public static void clearHighEnergyTail(double[] background, double[] energy) {
+        for(int i = 0; i < background.length; i++) {
+            if (background[i] < 0.2 && energy[i] > 10000) {
+                background[i] = 0; // Avoid log(0)
+            }
         }
-        return D;
     }
 
     //Mirror index / for windows overlapping channel size ( < 0, > channel.size )
@@ -47,23 +66,59 @@ public abstract class FitterHelper {
         }
     }
 
-    public static boolean exceedsStandardDeviation(double[] counts, float threshold) {
-        //calculate mean and standard deviation
-        double mean = 0;
-        for(double count : counts) mean += count;
-        mean /= counts.length;
-
-        double variance = 0;
-        for(double count : counts) variance += Math.pow(count - mean, 2);
-        variance /= counts.length;
-        double stdDev = Math.sqrt(variance);
-        //check if any count exceeds mean + threshold * stdDev
-        if(stdDev == 0) return false; //no variation, no outliers
-        for(double count : counts){
-            if(Math.abs(count - mean) > threshold * stdDev) return true;
-        }
+    //Marks every channel whose window [i-halfWindow, i+halfWindow] (clipped, last channel excluded as before)
+    //contains a count further than threshold * stdDev from the window mean
+    //Running sum / sum of squares + monotonic max/min deques => O(n) for the whole spectrum, no per-channel allocation
+    //dequeBuffer needs 2 * counts.length ints
+    public static void markOutlierWindows(double[] counts, int halfWindow, float threshold, boolean[] outliers, int[] dequeBuffer) {
+        int n = counts.length;
+        int maxOffset = 0;          //deque of indices with decreasing counts, [maxHead, maxTail)
+        int minOffset = n;          //deque of indices with increasing counts, [minHead, minTail)
+        int maxHead = 0, maxTail = 0, minHead = 0, minTail = 0;
+        double sum = 0.0, sumSq = 0.0;
+        int lo = 0, hi = 0;         //current window [lo, hi)
+
+        for (int i = 0; i < n; i++) {
+            int newLo = Math.max(i - halfWindow, 0);
+            int newHi = Math.max(newLo, Math.min(i + halfWindow + 1, n - 1));
+            //Grow right side
+            while (hi < newHi) {
+                double c = counts[hi];
+                sum += c;
+                sumSq += c * c;
+                while (maxTail > maxHead && counts[dequeBuffer[maxOffset + maxTail - 1]] <= c) maxTail--;
+                dequeBuffer[maxOffset + maxTail++] = hi;
+                while (minTail > minHead && counts[dequeBuffer[minOffset + minTail - 1]] >= c) minTail--;
+                dequeBuffer[minOffset + minTail++] = hi;
+                hi++;
+            }
+            //Shrink left side
+            while (lo < newLo) {
+                double c = counts[lo];
+                sum -= c;
+                sumSq -= c * c;
+                if (maxTail > maxHead && dequeBuffer[maxOffset + maxHead] == lo) maxHead++;
+                if (minTail > minHead && dequeBuffer[minOffset + minHead] == lo) minHead++;
+                lo++;
+            }
 
-        return false;
+            int size = hi - lo;
+            if (size == 0) {
+                outliers[i] = false;
+                continue;
+            }
+            double mean = sum / size;
+            double variance = sumSq / size - mean * mean;
+            //no variation (up to rounding of the running sums), no outliers
+            if (variance <= 1e-12 * (mean * mean + 1.0)) {
+                outliers[i] = false;
+                continue;
+            }
+            double limit = threshold * Math.sqrt(variance);
+            double max = counts[dequeBuffer[maxOffset + maxHead]];
+            double min = counts[dequeBuffer[minOffset + minHead]];
+            outliers[i] = (max - mean) > limit || (mean - min) > limit;
+        }
     }
 
       //Savitzky-Golay
@@ -10,6 +10,11 @@ public class FittingData{
         public static final double lambda = 2e4;
         public static final double p = 8e-4;
         public static final int maxIter = 10;
+        public static final int binFactor = 8;
+        public static final int refineIter = 5;
+        public static final int segmentSize = 8192;
+        public static final int segmentOverlap = 1024;
+        public static final int snipWindow = 24;
         //SMOOTHING-VALUES
         public static final int sgWindowSize = 17;
         public static final int sgIters = 1;
@@ -27,12 +32,20 @@ public class FittingData{
     double lambda;
     double p;
     int maxIter;
+    int binFactor;
+    int refineIter;
+    int segmentSize;
+    int segmentOverlap;
+    int snipWindow;
     //SM
     int sgWindowSize;
     int sgIters;
     boolean sgEraseOutliers;
     int sgPolynomialDegree;
     double gaussSigma;
+    //RESULTS (written by the algorithms)
+    int iterations;
+    int iterationsSaved;
 
     //Contructor w all musts
    public FittingData(Spectrum spectrum) {
@@ -40,6 +53,11 @@ public class FittingData{
         this.lambda = GenericOpts.lambda;
         this.p = GenericOpts.p;
         this.maxIter = GenericOpts.maxIter;
+        this.binFactor = GenericOpts.binFactor;
+        this.refineIter = GenericOpts.refineIter;
+        this.segmentSize = GenericOpts.segmentSize;
+        this.segmentOverlap = GenericOpts.segmentOverlap;
+        this.snipWindow = GenericOpts.snipWindow;
         this.sgWindowSize = GenericOpts.sgWindowSize;
         this.sgIters = GenericOpts.sgIters;
         this.gaussSigma = GenericOpts.gaussSigma;
@@ -48,6 +66,32 @@ public class FittingData{
     }
 
 
+    //Getters
+
+    public double getLambda() {
+        return lambda;
+    }
+
+    public double getP() {
+        return p;
+    }
+
+    public int getMaxIter() {
+        return maxIter;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public int getIterationsSaved() {
+        return iterationsSaved;
+    }
+
     //Setters
 
     //BG
@@ -63,6 +107,26 @@ public class FittingData{
         this.maxIter = maxIter;
     }
 
+    public void setBinFactor(int binFactor) {
+        this.binFactor = binFactor;
+    }
+
+    public void setRefineIter(int refineIter) {
+        this.refineIter = refineIter;
+    }
+
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    public void setSegmentOverlap(int segmentOverlap) {
+        this.segmentOverlap = segmentOverlap;
+    }
+
+    public void setSnipWindow(int snipWindow) {
+        this.snipWindow = snipWindow;
+    }
+
     //SM
     public void setSgWindowSize(int sgWindowSize) {
         this.sgWindowSize = sgWindowSize;
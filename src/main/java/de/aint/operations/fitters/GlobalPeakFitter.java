@@ -0,0 +1,399 @@
+package de.aint.operations.fitters;
+
+import static de.aint.operations.fitters.LMNumerics.cholesky;
+import static de.aint.operations.fitters.LMNumerics.clamp;
+import static de.aint.operations.fitters.LMNumerics.substitute;
+
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.aint.models.ROI;
+import de.aint.models.Spectrum;
+
+//Fits all ROIs of a spectrum at once : sigma is no longer free per ROI but follows the detector FWHM curve
+//FWHM(ch) = c0 + c1 ch + c2 ch^2 (Spectrum.shape_cal), whose coefficients are shared by every ROI
+//Parameters = [shared q0..q2 | ROI 1 : B, A1, mu1, T1, G1, S1, ... | ROI 2 : ...]
+//The Jacobian is block-sparse (each ROI only depends on the shared columns and its own block), the damped normal
+//equations have an arrow structure and are solved by eliminating the ROI blocks (Schur complement on the shared block)
+//=> cost per iteration is linear in the number of ROIs
+public final class GlobalPeakFitter {
+
+    private static final Logger logger = LoggerFactory.getLogger(GlobalPeakFitter.class);
+
+    static final int SHARED = 3;
+    //Coefficients are fitted on ch / CHANNEL_SCALE, keeps the shared columns on comparable scales
+    static final double CHANNEL_SCALE = 1000.0;
+    static final double FWHM_TO_SIGMA = 1.0 / 2.35;
+
+    //roiParams[r] in the per-ROI layout [B, sigma, A1, mu1, T1, G1, S1, ...]
+    public record Result(double[] shapeCal, double[][] roiParams, int iterations, int evaluations, FitStatus status) {}
+
+    //Per ROI data and buffers, allocated once per fit
+    private static final class Block {
+        final LMPeakFitting.RoiProblem problem;
+        final int m;            //points
+        final int nLocal;       //2 + 5 * peaks, layout of PeakShape
+        final int nOwn;         //nLocal - 1 (no sigma)
+        final int offset;       //first own parameter in the global vector
+        final int stride;       //SHARED + nOwn, row length of the global Jacobian block
+        final double t;         //scaled channel of the first peak
+        final double sigMin;
+        final double[] pLocal;
+        final double[] jLocal;
+        double[] f, fTrial, jac, jacTrial;
+        final double[] C;       //SHARED x nOwn : Js^T W Jr
+        final double[] D;       //nOwn x nOwn  : Jr^T W Jr (lower triangle)
+        final double[] L;       //nOwn x nOwn  : Cholesky factor of the damped D
+        final double[] g;       //nOwn
+        final double[] Y;       //nOwn x SHARED : D^-1 C^T
+        final double[] z;       //nOwn : D^-1 g
+
+        Block(LMPeakFitting.RoiProblem problem, int offset) {
+            this.problem = problem;
+            this.m = problem.E().length;
+            this.nLocal = problem.start().length;
+            this.nOwn = nLocal - 1;
+            this.offset = offset;
+            this.stride = SHARED + nOwn;
+            this.t = problem.peakChannel() / CHANNEL_SCALE;
+            this.sigMin = LMPeakFitting.sigmaMinFromE(problem.E());
+            this.pLocal = new double[nLocal];
+            this.jLocal = new double[m * nLocal];
+            this.f = new double[m];
+            this.fTrial = new double[m];
+            this.jac = new double[m * stride];
+            this.jacTrial = new double[m * stride];
+            this.C = new double[SHARED * nOwn];
+            this.D = new double[nOwn * nOwn];
+            this.L = new double[nOwn * nOwn];
+            this.g = new double[nOwn];
+            this.Y = new double[nOwn * SHARED];
+            this.z = new double[nOwn];
+        }
+
+        //Global index of local parameter j (j != 1)
+        int globalIndex(int j) {
+            return offset + (j == 0 ? 0 : j - 1);
+        }
+
+        void swap() {
+            double[] tmp = f; f = fTrial; fTrial = tmp;
+            tmp = jac; jac = jacTrial; jacTrial = tmp;
+        }
+    }
+
+    private GlobalPeakFitter() {}
+
+    public static Result fit(ROI[] rois, int maxIter) {
+        return fit(rois, maxIter, FitBudget.forRequest());
+    }
+
+    //Fits all ROIs (must belong to the same spectrum) and stores the per-ROI params and status in the ROIs
+    //The whole spectrum-wide fit counts as one fit for the ROI limits of the budget
+    public static Result fit(ROI[] rois, int maxIter, FitBudget budget) {
+        if (rois.length == 0) {
+            return new Result(new double[0], new double[0][], 0, 0, FitStatus.CONVERGED);
+        }
+        Spectrum spec = rois[0].getSpectrum();
+        spec.derived().background();
+
+        //Global vector, bounds and blocks
+        Block[] blocks = new Block[rois.length];
+        int n = SHARED;
+        for (int r = 0; r < rois.length; r++) {
+            blocks[r] = new Block(LMPeakFitting.prepare(rois[r]), n);
+            n += blocks[r].nOwn;
+        }
+        double[] x = new double[n];
+        double[] lo = new double[n];
+        double[] hi = new double[n];
+        double[] shapeCal = spec.shapeCal();
+        for (int k = 0; k < SHARED; k++) {
+            x[k] = shapeCal[k] * Math.pow(CHANNEL_SCALE, k);
+            lo[k] = Double.NEGATIVE_INFINITY;
+            hi[k] = Double.POSITIVE_INFINITY;
+        }
+        //Fewer ROIs than coefficients can not determine the whole curve, keep the higher orders fixed
+        for (int k = Math.min(SHARED, rois.length); k < SHARED; k++) {
+            lo[k] = x[k];
+            hi[k] = x[k];
+        }
+        double[] loLocal = new double[0];
+        double[] hiLocal = new double[0];
+        for (Block b : blocks) {
+            if (loLocal.length < b.nLocal) {
+                loLocal = new double[b.nLocal];
+                hiLocal = new double[b.nLocal];
+            }
+            LMPeakFitting.RoiProblem pr = b.problem;
+            LMPeakFitting.setBounds(loLocal, hiLocal, b.nLocal, b.sigMin, pr.bSet(), pr.muSet(), pr.Aset());
+            for (int j = 0; j < b.nLocal; j++) {
+                if (j == 1) continue;
+                int gi = b.globalIndex(j);
+                lo[gi] = loLocal[j];
+                hi[gi] = hiLocal[j];
+                x[gi] = clamp(pr.start()[j], lo[gi], hi[gi]);
+            }
+        }
+
+        //Levenberg-Marquardt, same acceptance / damping scheme as PeakLMSolver
+        double[] xTrial = new double[n];
+        double[] delta = new double[n];
+        boolean[] free = new boolean[n];
+        double[] S = new double[SHARED * SHARED];
+        double[] gS = new double[SHARED];
+        double[] schur = new double[SHARED * SHARED];
+        double[] rhs = new double[SHARED];
+
+        int maxEvaluations = budget.roiEvaluations(1000 * Math.max(1, maxIter));
+        long deadline = budget.roiDeadline();
+        FitBudget.Exhausted exhausted = budget.beforeEvaluation(0, maxEvaluations, deadline);
+        double cost = exhausted == FitBudget.Exhausted.NONE ? evaluate(blocks, x, false) : Double.NaN;
+        int evaluations = exhausted == FitBudget.Exhausted.NONE ? 1 : 0;
+        int iterations = 0;
+        boolean converged = false;
+        double lambda = PeakLMSolver.LAMBDA_START;
+
+        while (exhausted == FitBudget.Exhausted.NONE && iterations < Math.max(1, maxIter) && !converged) {
+            iterations++;
+            buildNormalEquations(blocks, S, gS);
+
+            //Active set over the whole vector
+            int nFree = 0;
+            for (int k = 0; k < SHARED; k++) {
+                free[k] = isFree(x[k], lo[k], hi[k], gS[k]);
+                if (free[k]) nFree++;
+            }
+            double maxDiag = 0.0;
+            for (int k = 0; k < SHARED; k++) if (free[k]) maxDiag = Math.max(maxDiag, S[k * SHARED + k]);
+            for (Block b : blocks) {
+                for (int a = 0; a < b.nOwn; a++) {
+                    int gi = b.offset + a;
+                    free[gi] = isFree(x[gi], lo[gi], hi[gi], b.g[a]);
+                    if (free[gi]) {
+                        nFree++;
+                        maxDiag = Math.max(maxDiag, b.D[a * b.nOwn + a]);
+                    }
+                }
+            }
+            if (nFree == 0) {
+                converged = true;
+                break;
+            }
+            double diagFloor = maxDiag > 0 ? 1e-12 * maxDiag : 1.0;
+
+            boolean accepted = false;
+            while (!accepted) {
+                if (lambda > PeakLMSolver.LAMBDA_MAX) {
+                    converged = true;
+                    break;
+                }
+                if (!solveDamped(blocks, S, gS, schur, rhs, free, lambda, diagFloor, delta)) {
+                    lambda *= 10;
+                    continue;
+                }
+
+                boolean moved = false;
+                for (int j = 0; j < n; j++) {
+                    double xt = free[j] ? clamp(x[j] + delta[j], lo[j], hi[j]) : x[j];
+                    if (Math.abs(xt - x[j]) > PeakLMSolver.PARAM_TOLERANCE * (Math.abs(x[j]) + PeakLMSolver.PARAM_TOLERANCE)) moved = true;
+                    xTrial[j] = xt;
+                }
+                if (!moved) {
+                    converged = true;
+                    break;
+                }
+
+                exhausted = budget.beforeEvaluation(evaluations, maxEvaluations, deadline);
+                if (exhausted != FitBudget.Exhausted.NONE) break;
+                double trialCost = evaluate(blocks, xTrial, true);
+                evaluations++;
+                if (trialCost < cost) {
+                    accepted = true;
+                    converged = cost - trialCost <= PeakLMSolver.COST_TOLERANCE * cost;
+                    cost = trialCost;
+                    double[] tmp = x; x = xTrial; xTrial = tmp;
+                    for (Block b : blocks) b.swap();
+                    lambda = Math.max(lambda / 10, PeakLMSolver.LAMBDA_MIN);
+                } else {
+                    lambda *= 10;
+                }
+            }
+            if (!accepted) break;
+        }
+
+        FitStatus status = converged ? FitStatus.CONVERGED
+                : exhausted != FitBudget.Exhausted.NONE ? FitStatus.BUDGET_EXHAUSTED : FitStatus.NOT_CONVERGED;
+        //Budget stops are already counted by FitBudget.beforeEvaluation
+        if (status == FitStatus.NOT_CONVERGED) FitBudget.recordNotConverged();
+
+        //Back to channel coefficients and per-ROI layout
+        double[] fittedCal = new double[SHARED];
+        for (int k = 0; k < SHARED; k++) fittedCal[k] = x[k] / Math.pow(CHANNEL_SCALE, k);
+        double[][] roiParams = new double[rois.length][];
+        for (int r = 0; r < rois.length; r++) {
+            Block b = blocks[r];
+            double[] p = new double[b.nLocal];
+            p[0] = x[b.offset];
+            p[1] = Math.max(sigma(x, b.t), b.sigMin);
+            System.arraycopy(x, b.offset + 1, p, 2, b.nLocal - 2);
+            roiParams[r] = p;
+            rois[r].setFitParams(p, status);
+        }
+        logger.info("Global fit of {} ROIs : {} iterations, {} evaluations, {}, shape_cal {}",
+                rois.length, iterations, evaluations, status, Arrays.toString(fittedCal));
+        return new Result(fittedCal, roiParams, iterations, evaluations, status);
+    }
+
+    private static double sigma(double[] x, double t) {
+        return (x[0] + x[1] * t + x[2] * t * t) * FWHM_TO_SIGMA;
+    }
+
+    //Model + block Jacobian of every ROI at x (into the trial buffers if trial), returns the weighted cost
+    private static double evaluate(Block[] blocks, double[] x, boolean trial) {
+        double cost = 0.0;
+        for (Block b : blocks) {
+            double rawSigma = sigma(x, b.t);
+            boolean sigmaClamped = rawSigma < b.sigMin;
+            double[] p = b.pLocal;
+            p[0] = x[b.offset];
+            p[1] = sigmaClamped ? b.sigMin : rawSigma;
+            System.arraycopy(x, b.offset + 1, p, 2, b.nLocal - 2);
+
+            double[] f = trial ? b.fTrial : b.f;
+            double[] jac = trial ? b.jacTrial : b.jac;
+            PeakShape.valueAndJacobian(b.problem.E(), b.m, p, b.nLocal, f, b.jLocal);
+
+            //d sigma / d q_k = t^k / 2.35, zero where sigma is held at its minimum
+            double ds0 = sigmaClamped ? 0.0 : FWHM_TO_SIGMA;
+            double ds1 = ds0 * b.t;
+            double ds2 = ds1 * b.t;
+            double[] y = b.problem.y();
+            double[] w = b.problem.w();
+            for (int i = 0; i < b.m; i++) {
+                int src = i * b.nLocal;
+                int dst = i * b.stride;
+                double dSigma = b.jLocal[src + 1];
+                jac[dst] = dSigma * ds0;
+                jac[dst + 1] = dSigma * ds1;
+                jac[dst + 2] = dSigma * ds2;
+                jac[dst + SHARED] = b.jLocal[src];
+                System.arraycopy(b.jLocal, src + 2, jac, dst + SHARED + 1, b.nLocal - 2);
+                double r = y[i] - f[i];
+                cost += w[i] * r * r;
+            }
+        }
+        return cost;
+    }
+
+    //Shared block S / gS summed over all ROIs, C / D / g per ROI
+    private static void buildNormalEquations(Block[] blocks, double[] S, double[] gS) {
+        Arrays.fill(S, 0.0);
+        Arrays.fill(gS, 0.0);
+        for (Block b : blocks) {
+            int nOwn = b.nOwn;
+            Arrays.fill(b.C, 0.0);
+            Arrays.fill(b.D, 0.0);
+            Arrays.fill(b.g, 0.0);
+            double[] y = b.problem.y();
+            double[] w = b.problem.w();
+            for (int i = 0; i < b.m; i++) {
+                int row = i * b.stride;
+                double wi = w[i];
+                double wr = wi * (y[i] - b.f[i]);
+                for (int k = 0; k < SHARED; k++) {
+                    double jk = b.jac[row + k];
+                    if (jk == 0.0) continue;
+                    gS[k] += jk * wr;
+                    double wjk = wi * jk;
+                    for (int l = 0; l < SHARED; l++) S[k * SHARED + l] += wjk * b.jac[row + l];
+                    for (int a = 0; a < nOwn; a++) b.C[k * nOwn + a] += wjk * b.jac[row + SHARED + a];
+                }
+                for (int a = 0; a < nOwn; a++) {
+                    double ja = b.jac[row + SHARED + a];
+                    if (ja == 0.0) continue;
+                    b.g[a] += ja * wr;
+                    double wja = wi * ja;
+                    for (int c = 0; c <= a; c++) b.D[a * nOwn + c] += wja * b.jac[row + SHARED + c];
+                }
+            }
+        }
+    }
+
+    //Damped arrow system : eliminate every ROI block, solve the shared block, back-substitute the ROI steps
+    //Frozen parameters get an identity row / column and a zero right hand side => zero step
+    //S, gS and the blocks' C / D / g are only read, so a rejected step can retry with a larger lambda
+    private static boolean solveDamped(Block[] blocks, double[] S, double[] gS, double[] schur, double[] rhs,
+                                       boolean[] free, double lambda, double diagFloor, double[] delta) {
+        for (int k = 0; k < SHARED; k++) {
+            for (int l = 0; l < SHARED; l++) {
+                schur[k * SHARED + l] = free[k] && free[l] ? S[k * SHARED + l] : 0.0;
+            }
+            double d = S[k * SHARED + k];
+            schur[k * SHARED + k] = free[k] ? d + lambda * Math.max(d, diagFloor) : 1.0;
+            rhs[k] = free[k] ? gS[k] : 0.0;
+        }
+
+        for (Block b : blocks) {
+            int nOwn = b.nOwn;
+            double[] L = dampedOwnBlock(b, free, lambda, diagFloor);
+            if (!cholesky(L, nOwn)) return false;
+
+            //z = D^-1 g, Y = D^-1 C^T
+            for (int a = 0; a < nOwn; a++) b.z[a] = free[b.offset + a] ? b.g[a] : 0.0;
+            substitute(L, b.z, 0, 1, nOwn);
+            for (int k = 0; k < SHARED; k++) {
+                for (int a = 0; a < nOwn; a++) {
+                    b.Y[a * SHARED + k] = free[k] && free[b.offset + a] ? b.C[k * nOwn + a] : 0.0;
+                }
+                substitute(L, b.Y, k, SHARED, nOwn);
+            }
+            //schur -= C Y, rhs -= C z
+            for (int k = 0; k < SHARED; k++) {
+                if (!free[k]) continue;
+                for (int a = 0; a < nOwn; a++) {
+                    if (!free[b.offset + a]) continue;
+                    double c = b.C[k * nOwn + a];
+                    rhs[k] -= c * b.z[a];
+                    for (int l = 0; l < SHARED; l++) schur[k * SHARED + l] -= c * b.Y[a * SHARED + l];
+                }
+            }
+        }
+
+        if (!cholesky(schur, SHARED)) return false;
+        substitute(schur, rhs, 0, 1, SHARED);
+        System.arraycopy(rhs, 0, delta, 0, SHARED);
+
+        //delta_r = z - Y delta_shared
+        for (Block b : blocks) {
+            for (int a = 0; a < b.nOwn; a++) {
+                double v = b.z[a];
+                for (int k = 0; k < SHARED; k++) v -= b.Y[a * SHARED + k] * rhs[k];
+                delta[b.offset + a] = free[b.offset + a] ? v : 0.0;
+            }
+        }
+        return true;
+    }
+
+    //Damped copy of the own block (lower triangle) into the block's factor buffer
+    private static double[] dampedOwnBlock(Block b, boolean[] free, double lambda, double diagFloor) {
+        int nOwn = b.nOwn;
+        for (int a = 0; a < nOwn; a++) {
+            boolean fa = free[b.offset + a];
+            for (int c = 0; c < a; c++) {
+                b.L[a * nOwn + c] = fa && free[b.offset + c] ? b.D[a * nOwn + c] : 0.0;
+            }
+            double d = b.D[a * nOwn + a];
+            b.L[a * nOwn + a] = fa ? d + lambda * Math.max(d, diagFloor) : 1.0;
+        }
+        return b.L;
+    }
+
+    private static boolean isFree(double x, double lo, double hi, double g) {
+        if (lo >= hi) return false;
+        if (x <= lo && g < 0) return false;
+        return !(x >= hi && g > 0);
+    }
+}
@@ -0,0 +1,36 @@
+package de.aint.operations.fitters;
+
+import java.util.Arrays;
+
+//Immutable convolution kernel, shared between threads through the KernelCache
+public final class Kernel {
+
+    private final double[] weights;
+
+    Kernel(double[] weights) {
+        this.weights = weights.clone();
+    }
+
+    public double get(int index) {
+        return weights[index];
+    }
+
+    public int length() {
+        return weights.length;
+    }
+
+    //Copy, the kernel itself can not be changed
+    public double[] toArray() {
+        return weights.clone();
+    }
+
+    //Backing array for the convolution loops, read only
+    double[] weights() {
+        return weights;
+    }
+
+    @Override
+    public String toString() {
+        return "Kernel" + Arrays.toString(weights);
+    }
+}
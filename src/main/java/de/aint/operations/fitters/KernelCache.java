@@ -0,0 +1,68 @@
+package de.aint.operations.fitters;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+//Thread-safe, bounded (LRU) cache for smoothing kernels
+//SG kernels are keyed by (window size, polynomial degree), Gauss kernels by (sigma, kernel size)
+public final class KernelCache {
+
+    static final int MAX_KERNELS = 64;
+
+    private record SgKey(int windowSize, int polynomialDegree) {}
+    private record GaussKey(double sigma, int kernelSize) {}
+
+    public record Stats(long hits, long misses, int size, double hitRate) {}
+
+    private static final Map<Object, Kernel> kernels = Collections.synchronizedMap(
+            new LinkedHashMap<>(MAX_KERNELS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Object, Kernel> eldest) {
+                    return size() > MAX_KERNELS;
+                }
+            });
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+
+    private KernelCache() {}
+
+    public static Kernel savitzkyGolay(int windowSize, int polynomialDegree) {
+        return lookup(new SgKey(windowSize, polynomialDegree),
+                () -> FitterHelper.createSavitzkyGolayKernel(windowSize, polynomialDegree));
+    }
+
+    public static Kernel gauss(double sigma, int kernelSize) {
+        return lookup(new GaussKey(sigma, kernelSize),
+                () -> FitterHelper.createGaussKernel(sigma, kernelSize));
+    }
+
+    public static Stats stats() {
+        long h = hits.sum();
+        long m = misses.sum();
+        return new Stats(h, m, kernels.size(), (h + m) == 0 ? 0.0 : (double) h / (h + m));
+    }
+
+    public static void clear() {
+        kernels.clear();
+    }
+
+    private interface KernelFactory {
+        double[] create();
+    }
+
+    private static Kernel lookup(Object key, KernelFactory factory) {
+        Kernel kernel = kernels.get(key);
+        if (kernel != null) {
+            hits.increment();
+            return kernel;
+        }
+        misses.increment();
+        //Built outside the lock, a concurrent miss for the same key just builds an equal kernel
+        kernel = new Kernel(factory.create());
+        Kernel previous = kernels.putIfAbsent(key, kernel);
+        return previous != null ? previous : kernel;
+    }
+}
@@ -0,0 +1,51 @@
+package de.aint.operations.fitters;
+
+//Dense numerics shared by the LM solvers (PeakLMSolver per ROI, GlobalPeakFitter per spectrum)
+//Matrices are flat row-major k x k arrays, only the lower triangle is read and written
+final class LMNumerics {
+
+    private LMNumerics() {}
+
+    //In-place Cholesky of the lower triangle of the k x k matrix a, false if not positive definite
+    static boolean cholesky(double[] a, int k) {
+        for (int i = 0; i < k; i++) {
+            for (int j = 0; j <= i; j++) {
+                double s = a[i * k + j];
+                for (int l = 0; l < j; l++) s -= a[i * k + l] * a[j * k + l];
+                if (i == j) {
+                    if (!(s > 0)) return false;
+                    a[i * k + i] = Math.sqrt(s);
+                } else {
+                    a[i * k + j] = s / a[j * k + j];
+                }
+            }
+        }
+        return true;
+    }
+
+    //Factorizes a and solves a * x = rhs into rhs, false if a is not positive definite
+    static boolean choleskySolve(double[] a, double[] rhs, int k) {
+        if (!cholesky(a, k)) return false;
+        substitute(a, rhs, 0, 1, k);
+        return true;
+    }
+
+    //Solves L L^T x = b for the column col of the row-major matrix rhs with ncols columns, in place
+    //(a vector is column 0 of 1), L from cholesky
+    static void substitute(double[] L, double[] rhs, int col, int ncols, int k) {
+        for (int i = 0; i < k; i++) {
+            double s = rhs[i * ncols + col];
+            for (int l = 0; l < i; l++) s -= L[i * k + l] * rhs[l * ncols + col];
+            rhs[i * ncols + col] = s / L[i * k + i];
+        }
+        for (int i = k - 1; i >= 0; i--) {
+            double s = rhs[i * ncols + col];
+            for (int l = i + 1; l < k; l++) s -= L[l * k + i] * rhs[l * ncols + col];
+            rhs[i * ncols + col] = s / L[i * k + i];
+        }
+    }
+
+    static double clamp(double value, double min, double max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
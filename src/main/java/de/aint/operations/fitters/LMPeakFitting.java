@@ -1,15 +1,9 @@
 package de.aint.operations.fitters;
 
-import org.apache.commons.math3.fitting.leastsquares.LeastSquaresBuilder;
-import org.apache.commons.math3.fitting.leastsquares.LeastSquaresOptimizer.Optimum;
-import org.apache.commons.math3.fitting.leastsquares.LeastSquaresProblem;
-import org.apache.commons.math3.fitting.leastsquares.LevenbergMarquardtOptimizer;
-import org.apache.commons.math3.fitting.leastsquares.MultivariateJacobianFunction;
-import org.apache.commons.math3.linear.Array2DRowRealMatrix;
-import org.apache.commons.math3.linear.ArrayRealVector;
-import org.apache.commons.math3.linear.DiagonalMatrix;
-import org.apache.commons.math3.special.Erf;
-import org.apache.commons.math3.util.Pair;
+import java.util.Arrays;
+
+import de.aint.models.ROI;
+import de.aint.models.EnergyAxis;
 
 public class LMPeakFitting {
     //Allow alghorithm to change variable in x radius
@@ -17,16 +11,50 @@ public class LMPeakFitting {
     static final double ARangeRadius = 0;
     static final double Bradius = 50;
 
-    private static double sigmaMinFromE(double[] E){
+    //Fit input of one ROI : data, weights, start values and the values the bounds are centered on
+    //peakChannel = channel of the first peak, where the detector FWHM is evaluated
+    record RoiProblem(double[] E, double[] y, double[] w, double[] start, double bSet, double[] muSet, double[] Aset, int peakChannel) {}
+
+    //Shared by the per-ROI and the spectrum-wide fit, the spectrum's background is computed on first use
+    static RoiProblem prepare(ROI roi){
+        double[] energies = roi.getSpectrum().getEnergy_per_channel();
+        double[] counts = roi.getSpectrum().getCounts();
+        EnergyAxis axis = roi.getSpectrum().energyAxis();
+        int channelBeg = axis.channelOf(roi.getStartEnergy());
+        int channelEnd = axis.channelOf(roi.getEndEnergy());
+        double[] E = Arrays.copyOfRange(energies, channelBeg, channelEnd+1);
+        double[] y = Arrays.copyOfRange(counts, channelBeg, channelEnd+1);
+        double[] background = Arrays.copyOfRange(roi.getSpectrum().derived().background(), channelBeg, channelEnd+1);
+
+        //Guess initial Parameters
+        int nPeaks = roi.getPeaks().length;
+        double[] start = new double[2 + 5 * nPeaks];
+        double[] muSet = new double[nPeaks];
+        double[] Aset = new double[nPeaks];
+        int peakChannel = axis.channelOf(roi.getPeaks()[0].getPeakCenter());
+        start[0] = (background[0]+background[background.length-1]) / 2 ; //Baseline
+        start[1] = roi.getSpectrum().getFwhmForNumber(peakChannel) / 2.35; //Sigma
+        for (int i = 0; i < nPeaks; i++) {
+            double center = roi.getPeaks()[i].getPeakCenter();
+            Aset[i] = counts[axis.channelOf(center)]-start[0];
+            start[2 + 5 * i] = Aset[i]; //Amplitude
+            start[3 + 5 * i] = center; //Mu
+            muSet[i] = center; //Store mu for bounds
+            start[4 + 5 * i] = 0.5; //Relative Tailing Amplitude
+            start[5 + 5 * i] = 1.5; //Gradient of Tailing
+            start[6 + 5 * i] = 0.05; //Tailing Amplitude
+        }
+        double bSet = (background[0]+background[background.length-1]) / 2;
+        double[] w = calculateWeight(E, y, muSet, 4.5, 2.0, start[1]);
+        return new RoiProblem(E, y, w, start, bSet, muSet, Aset, peakChannel);
+    }
+
+    static double sigmaMinFromE(double[] E){
         if (E.length < 2) return 1e-8; //Avoid division by zero
         double dE = Math.abs(E[1] - E[0]);
         return Math.max(0.3 * dE, 1e-8);
     }
 
-    private static double clamp(double value, double min, double max) {
-        return Math.max(min, Math.min(max, value));
-    }
-
     public static double[] calculateWeight(double[] E, double[] y, double[] muSet, double alpha, double kreach, double sigma) {
         //Poisson weights
         double[] weight = new double[y.length];
@@ -60,100 +88,48 @@ public class LMPeakFitting {
         return weight;
     }
 
-    private static double[] project(double[] p, double sigMin, double Bset, double muSet[], double[] Aset){
-        double[] q = p.clone();
-        q[0] = clamp(q[0], Bset - Bradius, Bset); // Clamp radius to negative, 0 to positive side (dont want B++++ sigma---- to happen)
-        q[1] = Math.max(p[1], sigMin);
+    //Box constraints for the solver : B within Bradius below its set value, sigma above the
+    //channel width limit, A / mu within their radius around the detected peak, tailing / step parameters bounded below
+    static void setBounds(double[] lo, double[] hi, int nParams, double sigMin, double Bset, double[] muSet, double[] Aset){
+        lo[0] = Bset - Bradius;  hi[0] = Bset; // radius to negative, 0 to positive side (dont want B++++ sigma---- to happen)
+        lo[1] = sigMin;          hi[1] = Double.POSITIVE_INFINITY;
 
-        int nPeaks = (q.length - 2) / 5;
+        int nPeaks = (nParams - 2) / 5;
         for(int i = 0; i < nPeaks; i++) {
             int offset = 2 + 5*i;
-            q[offset] = clamp(q[offset], Aset[i] - ARangeRadius, Aset[i] + ARangeRadius); // Ensure A doesn't change a lot
-            q[offset + 1] = clamp(q[offset + 1], muSet[i] - muRangeRadius, muSet[i] + muRangeRadius); // Ensure mu doesnt change alot
-            q[offset + 2] = Math.max(q[offset + 2], 0.3); // Ensure T is non-negative
-            q[offset + 3] = Math.max(q[offset + 3], 1e-3); // Ensure G is non-negative
-            q[offset + 4] = Math.max(q[offset + 4], 1e-3); // Ensure S is non-negative
-        }
-
-        return q;
-    }
-
-    //p = [ B, sigma, A1, mu1, T1, G1, S1, A2, mu2, T2, G2, S2, ..., An, mun, Tn, Gn, Sn]
-    //Calculates counts for modelled gauss func
-    private static double[] value(double[] E, double[] p){
-        double B = p[0];
-        double sigma = Math.max(p[1], 1e-8);
-        double inv2s2 = 1.0 / (2.0 * sigma * sigma); 
-        int numberOfPeaks = (p.length - 2)/5;
-
-        double[] newY = new double[E.length];
-        for (int i = 0; i < E.length; i++) {
-            double sum = B;
-            for (int k = 0; k < numberOfPeaks; k++) {
-                double A  = p[2 + 5*k];
-                double mu = p[3 + 5*k];
-                double T  = p[4 + 5*k]; 
-                double G =  p[5 + 5*k];
-                double S =  p[6 + 5*k];
-                double z  = E[i] - mu;
-                double delta = Math.sqrt(2)*sigma;
-
-                double core = Math.exp(-z*z * inv2s2);
-                double tail = 0.5*T * Math.exp(z / (G * delta)) * Erf.erfc((z / delta) + 1.0 / (2.0 * G));
-                double step = 0.5*S * Erf.erfc((z / delta));
-                //sum += A * core;
-                sum += A * (core + tail + step); //Add peak contribution);
-
-            }
-            newY[i] = sum;
+            lo[offset] = Aset[i] - ARangeRadius;      hi[offset] = Aset[i] + ARangeRadius;      // Ensure A doesn't change a lot
+            lo[offset + 1] = muSet[i] - muRangeRadius; hi[offset + 1] = muSet[i] + muRangeRadius; // Ensure mu doesnt change alot
+            lo[offset + 2] = 0.3;  hi[offset + 2] = Double.POSITIVE_INFINITY; // Ensure T is non-negative
+            lo[offset + 3] = 1e-3; hi[offset + 3] = Double.POSITIVE_INFINITY; // Ensure G is non-negative
+            lo[offset + 4] = 1e-3; hi[offset + 4] = Double.POSITIVE_INFINITY; // Ensure S is non-negative
         }
-        return newY;
     }
 
-    //Numeric Jacobian
-    private static MultivariateJacobianFunction numericModel(double[] E, double bSet, double[] muSet, double[] Aset){
-        return point -> {
-            double[] p = point.toArray(); //Gets parameters for model
-            double[] pBase = project(p, sigmaMinFromE(E), bSet, muSet, Aset); //Project parameters to ensure they are valid
-            double[] y = value(E, pBase); //Gets values for current gauss modell
-
-            int numberOfPoints = y.length, numberOfParameters = p.length;
-            double[][] J = new double[numberOfPoints][numberOfParameters];//Jacobian matrix
-
-            for (int j = 0; j < numberOfParameters; j++) { //IIterates over parameters
-
-                double parameter = p[j];
-                double difference  = 1e-6 * (Math.abs(parameter) + 1.0);
-                p[j] = parameter + difference; //Change parameter a little bit
-
-                double[] pPerturbed = project(p, sigmaMinFromE(E), bSet, muSet, Aset); //Project parameters to ensure they are valid
-
-                double[] y2 = value(E, pPerturbed); //Calculates values for changed parameter
-                p[j] = parameter; //Return to original parameter
-                double invDiff = 1.0 / difference;
-                for (int i = 0; i < numberOfPoints; i++) J[i][j] = (y2[i] - y[i]) * invDiff; //Numeric partial derivation   (y2-y)/difference
-            }
-            return new Pair<>(new ArrayRealVector(y, false),
-                              new Array2DRowRealMatrix(J, false));
-        };
-    }
+    //params = [B, sigma, A1, mu1, T1, G1, S1, ...], best so far if the fit did not converge
+    //covariance = flat params x params matrix (zero for fixed params), null if unavailable
+    public record Result(double[] params, FitStatus status, int evaluations, double[] covariance) {}
 
     //returns p = [B, sigma, A1, mu1, T1, B1, S1, ...]
     public static double[] fit(double[] E, double[] y, double[] start, int maxIter, double bCap, double[] muSet, double[] Aset, double[] w){
+        return fit(E, y, start, maxIter, bCap, muSet, Aset, w, FitBudget.unlimited()).params();
+    }
 
-
-        LeastSquaresProblem problem = new LeastSquaresBuilder()
-                .model(numericModel(E, bCap, muSet, Aset))
-                .target(new ArrayRealVector(y, false))
-                .start(new ArrayRealVector(start, false))
-                .weight(new DiagonalMatrix(w))
-                .maxIterations(Math.max(1, maxIter))
-                .maxEvaluations(1000 * Math.max(1, maxIter))
-                .build();
-
-        Optimum opt = new LevenbergMarquardtOptimizer().optimize(problem);
-        double[] p = opt.getPoint().toArray();
-        return project(p, sigmaMinFromE(E), bCap, muSet, Aset);
-        
+    //Runs on a pooled workspace, the returned parameters and covariance are the only allocations of the fit
+    public static Result fit(double[] E, double[] y, double[] start, int maxIter, double bCap, double[] muSet, double[] Aset, double[] w, FitBudget budget){
+        int m = E.length;
+        int n = start.length;
+
+        PeakLMSolver.Workspace ws = PeakLMSolver.acquire();
+        try {
+            ws.ensure(m, n);
+            setBounds(ws.lo, ws.hi, n, sigmaMinFromE(E), bCap, muSet, Aset);
+            System.arraycopy(start, 0, ws.x, 0, n);
+
+            PeakLMSolver.solve(E, y, w, m, n, Math.max(1, maxIter), 1000 * Math.max(1, maxIter), budget, ws);
+            double[] covariance = PeakLMSolver.covariance(y, w, m, n, ws);
+            return new Result(Arrays.copyOf(ws.x, n), ws.status, ws.evaluations, covariance);
+        } finally {
+            PeakLMSolver.release(ws);
+        }
     }
 }
@@ -0,0 +1,269 @@
+package de.aint.operations.fitters;
+
+import static de.aint.operations.fitters.LMNumerics.cholesky;
+import static de.aint.operations.fitters.LMNumerics.choleskySolve;
+import static de.aint.operations.fitters.LMNumerics.clamp;
+import static de.aint.operations.fitters.LMNumerics.substitute;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+//Levenberg-Marquardt for the peak model on flat primitive arrays
+//All buffers live in a pooled workspace that only grows => a fit allocates nothing per iteration or evaluation
+//Bounds are handled natively : trial steps are clamped into the box, parameters held at a bound by the gradient
+//are frozen for that iteration and parameters with lo == hi never enter the normal equations
+final class PeakLMSolver {
+
+    static final double COST_TOLERANCE = 1e-10;
+    static final double PARAM_TOLERANCE = 1e-10;
+    static final double LAMBDA_START = 1e-3;
+    static final double LAMBDA_MIN = 1e-12;
+    static final double LAMBDA_MAX = 1e12;
+
+    //Pooled instead of ThreadLocal : virtual threads (RoiFitExecutor.Mode.VIRTUAL_THREADS) are never reused,
+    //so a per-thread workspace would be allocated for every fit ; about one workspace per concurrent fit is kept
+    private static final int MAX_POOLED = 2 * Runtime.getRuntime().availableProcessors();
+    private static final BlockingQueue<Workspace> POOL = new ArrayBlockingQueue<>(MAX_POOLED);
+
+    //Caller fills x (start), lo and hi for the first n entries, results are read back from x and the status fields
+    static final class Workspace {
+        private int pointCap;
+        private int paramCap;
+
+        double[] x = new double[0];
+        double[] lo = new double[0];
+        double[] hi = new double[0];
+        private double[] xTrial = new double[0];
+        private double[] f = new double[0];
+        private double[] fTrial = new double[0];
+        private double[] J = new double[0];
+        private double[] JTrial = new double[0];
+        private double[] g = new double[0];
+        private double[] normal = new double[0];
+        private double[] chol = new double[0];
+        private double[] delta = new double[0];
+        private int[] free = new int[0];
+
+        //Status of the last solve
+        int iterations;
+        int evaluations;
+        FitStatus status;
+        double cost;
+
+        void ensure(int m, int n) {
+            if (n > paramCap) {
+                paramCap = n;
+                x = new double[n];
+                lo = new double[n];
+                hi = new double[n];
+                xTrial = new double[n];
+                g = new double[n];
+                normal = new double[n * n];
+                chol = new double[n * n];
+                delta = new double[n];
+                free = new int[n];
+            }
+            if (m > pointCap || n * m > J.length) {
+                pointCap = Math.max(pointCap, m);
+                f = new double[pointCap];
+                fTrial = new double[pointCap];
+                J = new double[pointCap * paramCap];
+                JTrial = new double[pointCap * paramCap];
+            }
+        }
+    }
+
+    private PeakLMSolver() {}
+
+    //Every acquired workspace has to be released once the results are copied out
+    static Workspace acquire() {
+        Workspace ws = POOL.poll();
+        return ws != null ? ws : new Workspace();
+    }
+
+    //Dropped if the pool is full
+    static void release(Workspace ws) {
+        POOL.offer(ws);
+    }
+
+    //Minimizes sum w_i (y_i - model(E_i))^2 over the box [lo, hi], m points, n parameters
+    //Every evaluation is checked against the budget, x always holds the best point found so far
+    static void solve(double[] E, double[] y, double[] w, int m, int n, int maxIter, int maxEvaluations, FitBudget budget, Workspace ws) {
+        double[] x = ws.x;
+        for (int j = 0; j < n; j++) x[j] = clamp(x[j], ws.lo[j], ws.hi[j]);
+
+        int roiMaxEvaluations = budget.roiEvaluations(maxEvaluations);
+        long roiDeadline = budget.roiDeadline();
+        FitBudget.Exhausted exhausted = budget.beforeEvaluation(0, roiMaxEvaluations, roiDeadline);
+        if (exhausted != FitBudget.Exhausted.NONE) {
+            //Nothing left for this fit, start values are the best so far
+            finish(ws, 0, 0, Double.NaN, FitStatus.BUDGET_EXHAUSTED);
+            return;
+        }
+        PeakShape.valueAndJacobian(E, m, x, n, ws.f, ws.J);
+        double cost = cost(y, ws.f, w, m);
+        int evaluations = 1;
+        int iterations = 0;
+        boolean converged = false;
+        double lambda = LAMBDA_START;
+
+        while (iterations < maxIter && !converged) {
+            iterations++;
+            buildNormalEquations(y, w, m, n, ws);
+
+            //Active set : a parameter at a bound stays there while the gradient pushes it outwards
+            int nf = 0;
+            for (int j = 0; j < n; j++) {
+                if (ws.lo[j] >= ws.hi[j]) continue;
+                if (x[j] <= ws.lo[j] && ws.g[j] < 0) continue;
+                if (x[j] >= ws.hi[j] && ws.g[j] > 0) continue;
+                ws.free[nf++] = j;
+            }
+            if (nf == 0) {
+                converged = true;
+                break;
+            }
+
+            double maxDiag = 0.0;
+            for (int a = 0; a < nf; a++) maxDiag = Math.max(maxDiag, ws.normal[ws.free[a] * n + ws.free[a]]);
+            double diagFloor = maxDiag > 0 ? 1e-12 * maxDiag : 1.0;
+
+            boolean accepted = false;
+            while (!accepted) {
+                if (lambda > LAMBDA_MAX) {
+                    //No further decrease possible
+                    converged = true;
+                    break;
+                }
+                //Damped reduced system (N + lambda * diag(N)) * delta = g over the free parameters
+                for (int a = 0; a < nf; a++) {
+                    int ja = ws.free[a];
+                    for (int b = 0; b <= a; b++) {
+                        ws.chol[a * nf + b] = ws.normal[ja * n + ws.free[b]];
+                    }
+                    double d = ws.normal[ja * n + ja];
+                    ws.chol[a * nf + a] = d + lambda * Math.max(d, diagFloor);
+                    ws.delta[a] = ws.g[ja];
+                }
+                if (!choleskySolve(ws.chol, ws.delta, nf)) {
+                    lambda *= 10;
+                    continue;
+                }
+
+                System.arraycopy(x, 0, ws.xTrial, 0, n);
+                boolean moved = false;
+                for (int a = 0; a < nf; a++) {
+                    int j = ws.free[a];
+                    double xt = clamp(x[j] + ws.delta[a], ws.lo[j], ws.hi[j]);
+                    if (Math.abs(xt - x[j]) > PARAM_TOLERANCE * (Math.abs(x[j]) + PARAM_TOLERANCE)) moved = true;
+                    ws.xTrial[j] = xt;
+                }
+                if (!moved) {
+                    converged = true;
+                    break;
+                }
+
+                exhausted = budget.beforeEvaluation(evaluations, roiMaxEvaluations, roiDeadline);
+                if (exhausted != FitBudget.Exhausted.NONE) break;
+                PeakShape.valueAndJacobian(E, m, ws.xTrial, n, ws.fTrial, ws.JTrial);
+                evaluations++;
+                double trialCost = cost(y, ws.fTrial, w, m);
+
+                if (trialCost < cost) {
+                    accepted = true;
+                    converged = cost - trialCost <= COST_TOLERANCE * cost;
+                    cost = trialCost;
+                    swap(ws);
+                    x = ws.x;
+                    lambda = Math.max(lambda / 10, LAMBDA_MIN);
+                } else {
+                    lambda *= 10;
+                }
+            }
+            if (!accepted) break;
+        }
+
+        FitStatus status = converged ? FitStatus.CONVERGED
+                : exhausted != FitBudget.Exhausted.NONE ? FitStatus.BUDGET_EXHAUSTED : FitStatus.NOT_CONVERGED;
+        finish(ws, iterations, evaluations, cost, status);
+    }
+
+    private static void finish(Workspace ws, int iterations, int evaluations, double cost, FitStatus status) {
+        ws.iterations = iterations;
+        ws.evaluations = evaluations;
+        ws.cost = cost;
+        ws.status = status;
+        //Budget stops are already counted by FitBudget.beforeEvaluation
+        if (status == FitStatus.NOT_CONVERGED) FitBudget.recordNotConverged();
+    }
+
+    //Parameter covariance at the solution : (J^T W J)^-1 over the free parameters, scaled by the reduced chi^2
+    //Parameters that are fixed or ended on a bound count as known => zero rows / columns in the flat n x n result
+    //null if nothing was evaluated or the matrix is singular
+    static double[] covariance(double[] y, double[] w, int m, int n, Workspace ws) {
+        if (ws.evaluations == 0) return null;
+        buildNormalEquations(y, w, m, n, ws);
+        int nf = 0;
+        for (int j = 0; j < n; j++) {
+            if (ws.x[j] > ws.lo[j] && ws.x[j] < ws.hi[j]) ws.free[nf++] = j;
+        }
+        for (int a = 0; a < nf; a++) {
+            for (int b = 0; b <= a; b++) ws.chol[a * nf + b] = ws.normal[ws.free[a] * n + ws.free[b]];
+        }
+        if (!cholesky(ws.chol, nf)) return null;
+
+        double scale = m > nf ? ws.cost / (m - nf) : 1.0;
+        double[] cov = new double[n * n];
+        for (int a = 0; a < nf; a++) {
+            //Column a of the inverse
+            for (int b = 0; b < nf; b++) ws.delta[b] = a == b ? 1.0 : 0.0;
+            substitute(ws.chol, ws.delta, 0, 1, nf);
+            for (int b = 0; b < nf; b++) cov[ws.free[b] * n + ws.free[a]] = scale * ws.delta[b];
+        }
+        return cov;
+    }
+
+    //g = J^T W r, normal = J^T W J (symmetric, full matrix)
+    private static void buildNormalEquations(double[] y, double[] w, int m, int n, Workspace ws) {
+        double[] J = ws.J;
+        double[] normal = ws.normal;
+        double[] g = ws.g;
+        for (int j = 0; j < n; j++) g[j] = 0.0;
+        for (int k = 0; k < n * n; k++) normal[k] = 0.0;
+
+        for (int i = 0; i < m; i++) {
+            int row = i * n;
+            double wi = w[i];
+            double wr = wi * (y[i] - ws.f[i]);
+            for (int a = 0; a < n; a++) {
+                double ja = J[row + a];
+                if (ja == 0.0) continue;
+                g[a] += ja * wr;
+                double wja = wi * ja;
+                int na = a * n;
+                for (int b = 0; b <= a; b++) {
+                    normal[na + b] += wja * J[row + b];
+                }
+            }
+        }
+        for (int a = 0; a < n; a++) {
+            for (int b = 0; b < a; b++) normal[b * n + a] = normal[a * n + b];
+        }
+    }
+
+    private static double cost(double[] y, double[] f, double[] w, int m) {
+        double c = 0.0;
+        for (int i = 0; i < m; i++) {
+            double r = y[i] - f[i];
+            c += w[i] * r * r;
+        }
+        return c;
+    }
+
+    //Accepted trial becomes the current point, buffers are exchanged instead of copied
+    private static void swap(Workspace ws) {
+        double[] t = ws.x; ws.x = ws.xTrial; ws.xTrial = t;
+        t = ws.f; ws.f = ws.fTrial; ws.fTrial = t;
+        t = ws.J; ws.J = ws.JTrial; ws.JTrial = t;
+    }
+}
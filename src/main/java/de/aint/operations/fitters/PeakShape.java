@@ -0,0 +1,211 @@
+package de.aint.operations.fitters;
+
+//Peak-shape kernel shared by fitting, the fitted spectrum and the area calculation
+//p = [ B, sigma, A1, mu1, T1, G1, S1, A2, mu2, T2, G2, S2, ..., An, mun, Tn, Gn, Sn]
+//u = (E - mu) / (sqrt(2) sigma) : shape = core + tail + step
+//core = exp(-u^2), tail = T/2 exp(u/G) erfc(u + 1/(2G)), step = S/2 erfc(u)
+public final class PeakShape {
+
+    static final double SQRT2 = Math.sqrt(2);
+    static final double SQRT_PI = Math.sqrt(Math.PI);
+    static final double INV_SQRT_PI = 1.0 / SQRT_PI;
+    static final double TWO_OVER_SQRT_PI = 2.0 / SQRT_PI;
+
+    //erfc(x) underflows to 0 above this
+    private static final double ERFC_ZERO = 26.543;
+
+    //Rational Chebyshev approximations after W. J. Cody, Math. Comp. 23 (1969), 631-637 (netlib specfun CALERF)
+    //Max relative error of erfc < 1e-15 wherever the result is a normal double (checked against libm erfc), fitting needs < 1e-9
+    //|x| <= 0.5 : erf(x) = x * P(x^2) / Q(x^2)
+    private static final double[] A = {3.16112374387056560e00, 1.13864154151050156e02, 3.77485237685302021e02,
+                                       3.20937758913846947e03, 1.85777706184603153e-1};
+    private static final double[] B = {2.36012909523441209e01, 2.44024637934444173e02, 1.28261652607737228e03,
+                                       2.84423683343917062e03};
+    //0.5 < x <= 4 : erfc(x) = exp(-x^2) * P(x) / Q(x)
+    private static final double[] C = {5.64188496988670089e-1, 8.88314979438837594e00, 6.61191906371416295e01,
+                                       2.98635138197400131e02, 8.81952221241769090e02, 1.71204761263407058e03,
+                                       2.05107837782607147e03, 1.23033935479799725e03, 2.15311535474403846e-8};
+    private static final double[] D = {1.57449261107098347e01, 1.17693950891312499e02, 5.37181101862009858e02,
+                                       1.62138957456669019e03, 3.29079923573345963e03, 4.36261909014324716e03,
+                                       3.43936767414372164e03, 1.23033935480374942e03};
+    //x > 4 : erfc(x) = exp(-x^2) / x * (1/sqrt(pi) + 1/x^2 * P(1/x^2) / Q(1/x^2))
+    private static final double[] P = {3.05326634961232344e-1, 3.60344899949804439e-1, 1.25781726111229246e-1,
+                                       1.60837851487422766e-2, 6.58749161529837803e-4, 1.63153871373020978e-2};
+    private static final double[] Q = {2.56852019228982242e00, 1.87295284992346725e00, 5.27905102951428412e-1,
+                                       6.05183413124413191e-2, 2.33520497626869185e-3};
+
+    private PeakShape() {}
+
+    //============== ERFC ================
+
+    public static double erfc(double x) {
+        double ax = Math.abs(x);
+        double r;
+        if (ax <= 0.5) {
+            return 1.0 - erfSmall(x);
+        } else if (ax >= ERFC_ZERO) {
+            r = 0.0;
+        } else {
+            //exp(-x^2) split into exp(-xr^2) * exp(-(x-xr)(x+xr)), xr = x rounded to 1/16 => no error amplification of x^2
+            double xr = Math.floor(ax * 16.0) / 16.0;
+            double del = (ax - xr) * (ax + xr);
+            r = Math.exp(-xr * xr) * Math.exp(-del) * erfcxTail(ax);
+        }
+        return x < 0 ? 2.0 - r : r;
+    }
+
+    //Scaled erfc : exp(x^2) * erfc(x), only used for x > 0.5 where erfc itself would underflow
+    static double erfcx(double x) {
+        return x > 0.5 ? erfcxTail(x) : Math.exp(x * x) * erfc(x);
+    }
+
+    private static double erfSmall(double x) {
+        double z = x * x;
+        double num = A[4] * z;
+        double den = z;
+        for (int i = 0; i < 3; i++) {
+            num = (num + A[i]) * z;
+            den = (den + B[i]) * z;
+        }
+        return x * (num + A[3]) / (den + B[3]);
+    }
+
+    //exp(x^2) * erfc(x) for x > 0.5
+    private static double erfcxTail(double x) {
+        if (x <= 4.0) {
+            double num = C[8] * x;
+            double den = x;
+            for (int i = 0; i < 7; i++) {
+                num = (num + C[i]) * x;
+                den = (den + D[i]) * x;
+            }
+            return (num + C[7]) / (den + D[7]);
+        }
+        double z = 1.0 / (x * x);
+        double num = P[5] * z;
+        double den = z;
+        for (int i = 0; i < 4; i++) {
+            num = (num + P[i]) * z;
+            den = (den + Q[i]) * z;
+        }
+        double r = z * (num + P[4]) / (den + Q[4]);
+        return (INV_SQRT_PI - r) / x;
+    }
+
+    //============== SHAPE ================
+
+    //exp(u/G) * erfc(u + 1/(2G)) ; for a positive erfc argument computed as exp(-u^2 - 1/(4G^2)) * erfcx(c),
+    //which stays finite where exp(u/G) overflows and erfc underflows
+    static double tail(double u, double G) {
+        double c = u + 0.5 / G;
+        if (c > 0.5) {
+            return Math.exp(-u * u - 0.25 / (G * G)) * erfcxTail(c);
+        }
+        return Math.exp(u / G) * erfc(c);
+    }
+
+    //Shape of one peak without amplitude
+    public static double shape(double E, double sigma, double mu, double T, double G, double S) {
+        double u = (E - mu) / (SQRT2 * sigma);
+        return Math.exp(-u * u) + 0.5 * T * tail(u, G) + 0.5 * S * erfc(u);
+    }
+
+    //Closed-form integral of one peak's shape (without amplitude) over [eFrom, eTo] in energy units
+    //Antiderivatives in u : core sqrt(pi)/2 erf(u), step u erfc(u) - exp(-u^2)/sqrt(pi),
+    //tail G (exp(u/G) erfc(u + 1/(2G)) + exp(-1/(4G^2)) erf(u))
+    public static double integral(double eFrom, double eTo, double sigma, double mu, double T, double G, double S) {
+        double delta = SQRT2 * sigma;
+        double ua = (eFrom - mu) / delta;
+        double ub = (eTo - mu) / delta;
+        double erfcA = erfc(ua);
+        double erfcB = erfc(ub);
+        double erfDiff = erfcA - erfcB; //erf(ub) - erf(ua)
+
+        double core = 0.5 * SQRT_PI * erfDiff;
+        double tail = G * (tail(ub, G) - tail(ua, G) + Math.exp(-0.25 / (G * G)) * erfDiff);
+        double step = (ub * erfcB - Math.exp(-ub * ub) * INV_SQRT_PI) - (ua * erfcA - Math.exp(-ua * ua) * INV_SQRT_PI);
+        return delta * (core + 0.5 * T * tail + 0.5 * S * step);
+    }
+
+    //B + sum of all peaks at energy E
+    public static double value(double E, double[] p) {
+        double sigma = Math.max(p[1], 1e-8);
+        int nPeaks = (p.length - 2) / 5;
+        double sum = p[0];
+        for (int k = 0; k < nPeaks; k++) {
+            int offset = 2 + 5 * k;
+            sum += p[offset] * shape(E, sigma, p[offset + 1], p[offset + 2], p[offset + 3], p[offset + 4]);
+        }
+        return sum;
+    }
+
+    //Batch : out[i] = sum of A * shape (background B excluded) for channels from (incl.) to to (excl.)
+    //Peak-outer / channel-inner, so per-peak constants are hoisted out of the channel loop
+    public static void evaluatePeaks(double[] E, int from, int to, double[] p, double[] out) {
+        double sigma = Math.max(p[1], 1e-8);
+        double invDelta = 1.0 / (SQRT2 * sigma);
+        int nPeaks = (p.length - 2) / 5;
+
+        for (int i = from; i < to; i++) out[i] = 0.0;
+        for (int k = 0; k < nPeaks; k++) {
+            int offset = 2 + 5 * k;
+            double A = p[offset];
+            double mu = p[offset + 1];
+            double halfT = 0.5 * p[offset + 2];
+            double G = p[offset + 3];
+            double halfS = 0.5 * p[offset + 4];
+            for (int i = from; i < to; i++) {
+                double u = (E[i] - mu) * invDelta;
+                out[i] += A * (Math.exp(-u * u) + halfT * tail(u, G) + halfS * erfc(u));
+            }
+        }
+    }
+
+    //Counts for the first nParams entries of p at the first m energies and the closed-form partial derivatives in the same pass
+    //J is flat row-major with stride nParams, so workspaces can be reused across problem sizes
+    public static void valueAndJacobian(double[] E, int m, double[] p, int nParams, double[] newY, double[] J) {
+        double B = p[0];
+        double sigma = Math.max(p[1], 1e-8);
+        double invDelta = 1.0 / (SQRT2 * sigma);
+        int numberOfPeaks = (nParams - 2) / 5;
+
+        for (int i = 0; i < m; i++) {
+            int row = i * nParams;
+            double sum = B;
+            double dSigma = 0.0;
+            J[row] = 1.0;
+            for (int k = 0; k < numberOfPeaks; k++) {
+                int offset = 2 + 5 * k;
+                double A  = p[offset];
+                double mu = p[offset + 1];
+                double T  = p[offset + 2];
+                double G  = p[offset + 3];
+                double S  = p[offset + 4];
+                double u = (E[i] - mu) * invDelta;
+
+                double core = Math.exp(-u * u);
+                double tailTerm = tail(u, G);            //exp(u/G) erfc(c)
+                double stepErfc = erfc(u);
+                double tailGauss = Math.exp(-u * u - 0.25 / (G * G)); //exp(u/G - c^2)
+
+                double shape = core + 0.5 * T * tailTerm + 0.5 * S * stepErfc;
+                sum += A * shape;
+
+                //d(shape)/du
+                double dCore = -2.0 * u * core;
+                double dTail = 0.5 * T * (tailTerm / G - TWO_OVER_SQRT_PI * tailGauss);
+                double dStep = -0.5 * S * TWO_OVER_SQRT_PI * core;
+                double dShapeDu = dCore + dTail + dStep;
+
+                J[row + offset]     = shape;                                //dA
+                J[row + offset + 1] = -A * dShapeDu * invDelta;             //dmu   (du/dmu = -1/delta)
+                J[row + offset + 2] = A * 0.5 * tailTerm;                   //dT
+                J[row + offset + 3] = A * 0.5 * T / (G * G) * (-u * tailTerm + tailGauss * INV_SQRT_PI); //dG
+                J[row + offset + 4] = A * 0.5 * stepErfc;                   //dS
+                dSigma += -A * dShapeDu * u / sigma;                        //du/dsigma = -u/sigma
+            }
+            J[row + 1] = dSigma;
+            newY[i] = sum;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package de.aint.operations.fitters;
+
+//Solves (W + P) * x = W * y for a diagonal weight matrix W and the symmetric pentadiagonal curvature penalty P
+//Uses a banded Cholesky (LDL^T) factorization => O(n) time and memory instead of dense n x n matrices
+//Buffers are allocated once per solver, so one instance can be reused for every ALS/ARPLS iteration (NOT thread safe)
+public final class PentadiagonalSolver {
+
+    private final int n;
+
+    //Penalty bands : main diagonal, first and second off-diagonal
+    private final double[] penaltyDiag;
+    private final double[] penaltyOff1;
+    private final double[] penaltyOff2;
+
+    //Factorization buffers : D (diagonal) and L (unit lower, first + second sub-diagonal)
+    private final double[] d;
+    private final double[] l1;
+    private final double[] l2;
+
+    public PentadiagonalSolver(int n, double lambda) {
+        if (n < 1) {
+            throw new IllegalArgumentException("Solver needs at least one channel.");
+        }
+        this.n = n;
+        double[][] bands = FitterHelper.buildCurvaturePenaltyBands(n, lambda);
+        this.penaltyDiag = bands[0];
+        this.penaltyOff1 = bands[1];
+        this.penaltyOff2 = bands[2];
+        this.d = new double[n];
+        this.l1 = new double[n];
+        this.l2 = new double[n];
+    }
+
+    public int size() {
+        return n;
+    }
+
+    //Factorizes W + P and solves for the weighted counts, result is written to out (out may be y)
+    public void solve(double[] weights, double[] y, double[] out) {
+        factorize(weights);
+
+        //Forward substitution : L * z = W * y
+        for (int i = 0; i < n; i++) {
+            double z = weights[i] * y[i];
+            if (i > 0) z -= l1[i] * out[i - 1];
+            if (i > 1) z -= l2[i] * out[i - 2];
+            out[i] = z;
+        }
+        //Diagonal : D * u = z
+        for (int i = 0; i < n; i++) {
+            out[i] /= d[i];
+        }
+        //Back substitution : L^T * x = u
+        for (int i = n - 1; i >= 0; i--) {
+            double x = out[i];
+            if (i + 1 < n) x -= l1[i + 1] * out[i + 1];
+            if (i + 2 < n) x -= l2[i + 2] * out[i + 2];
+            out[i] = x;
+        }
+    }
+
+    //LDL^T of W + P, l1[i] = L(i, i-1), l2[i] = L(i, i-2)
+    private void factorize(double[] weights) {
+        for (int i = 0; i < n; i++) {
+            double li2 = 0.0;
+            double li1 = 0.0;
+            if (i > 1) {
+                li2 = penaltyOff2[i - 2] / d[i - 2];
+            }
+            if (i > 0) {
+                double b = penaltyOff1[i - 1];
+                if (i > 1) b -= li2 * l1[i - 1] * d[i - 2];
+                li1 = b / d[i - 1];
+            }
+            double di = weights[i] + penaltyDiag[i];
+            if (i > 0) di -= li1 * li1 * d[i - 1];
+            if (i > 1) di -= li2 * li2 * d[i - 2];
+            if (di <= 0) {
+                throw new ArithmeticException("Background system is not positive definite at channel " + i);
+            }
+            l2[i] = li2;
+            l1[i] = li1;
+            d[i] = di;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package de.aint.operations.fitters;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.aint.models.ROI;
+import de.aint.models.Spectrum;
+import jakarta.annotation.PreDestroy;
+
+//Runs independent per-ROI work (fits, areas) in parallel
+//Results stay in the ROI objects, so order is the input order; a failing ROI does not affect the others
+//One instance per application (Spring bean, see FittingConfiguration), shut down with the context
+public final class RoiFitExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(RoiFitExecutor.class);
+
+    public enum Mode { FORK_JOIN, VIRTUAL_THREADS }
+
+    //Failed ROI with its position in the input array
+    public record RoiFailure(int index, ROI roi, Exception error) {}
+
+    private final Mode mode;
+    private final int parallelism;
+    private final ForkJoinPool pool;
+
+    //parallelism 0 => number of cores
+    public RoiFitExecutor(Mode mode, int parallelism) {
+        this.mode = mode;
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.pool = mode == Mode.FORK_JOIN ? new ForkJoinPool(this.parallelism) : null;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    //Running fits finish, no new ones are accepted (virtual threads are per call, nothing to stop)
+    @PreDestroy
+    public void shutdown() {
+        if (pool != null) pool.shutdown();
+    }
+
+    //One budget for all ROIs, fits started after it ran out return their start values as BUDGET_EXHAUSTED
+    public List<RoiFailure> fitPeaks(ROI[] rois, FitBudget budget) {
+        return forEach(rois, roi -> roi.fitGaussCurve(budget));
+    }
+
+    //ROIs without params are fitted first under the same budget
+    public List<RoiFailure> setAreasOverBackground(ROI[] rois, FitBudget budget) {
+        return forEach(rois, roi -> roi.setAreaOverBackground(budget));
+    }
+
+    public List<RoiFailure> forEach(ROI[] rois, Consumer<ROI> task) {
+        prepareBackgrounds(rois);
+
+        try {
+            if (parallelism == 1 || rois.length <= 1) {
+                List<RoiFailure> failures = new ArrayList<>();
+                for (int i = 0; i < rois.length; i++) {
+                    RoiFailure failure = run(i, rois[i], task, null);
+                    if (failure != null) failures.add(failure);
+                }
+                return failures;
+            }
+
+            Semaphore permits = mode == Mode.VIRTUAL_THREADS ? new Semaphore(parallelism) : null;
+            List<Callable<RoiFailure>> jobs = new ArrayList<>(rois.length);
+            for (int i = 0; i < rois.length; i++) {
+                int idx = i;
+                jobs.add(() -> run(idx, rois[idx], task, permits));
+            }
+
+            List<Future<RoiFailure>> futures;
+            if (mode == Mode.FORK_JOIN) {
+                futures = pool.invokeAll(jobs);
+            } else {
+                try (ExecutorService virtual = Executors.newVirtualThreadPerTaskExecutor()) {
+                    futures = virtual.invokeAll(jobs);
+                }
+            }
+            //Collected in input order => deterministic
+            List<RoiFailure> failures = new ArrayList<>();
+            for (Future<RoiFailure> future : futures) {
+                RoiFailure failure = future.get();
+                if (failure != null) failures.add(failure);
+            }
+            return failures;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("ROI fitting interrupted", e);
+        } catch (ExecutionException e) {
+            //run() catches per ROI, only reached for errors outside the task
+            throw new IllegalStateException("ROI fitting failed", e.getCause());
+        }
+    }
+
+    private static RoiFailure run(int index, ROI roi, Consumer<ROI> task, Semaphore permits) throws InterruptedException {
+        if (permits != null) permits.acquire();
+        try {
+            task.accept(roi);
+            return null;
+        } catch (Exception e) {
+            logger.error("Error processing ROI from {} keV to {} keV: {}", roi.getStartEnergy(), roi.getEndEnergy(), e.getMessage());
+            return new RoiFailure(index, roi, e);
+        } finally {
+            if (permits != null) permits.release();
+        }
+    }
+
+    //Fits read the spectrum's background, compute it once per spectrum before fanning out
+    //(the memo is thread-safe anyway, this just keeps the workers from queueing behind the first solve)
+    private static void prepareBackgrounds(ROI[] rois) {
+        Set<Spectrum> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (ROI roi : rois) {
+            Spectrum spec = roi.getSpectrum();
+            if (seen.add(spec)) spec.derived().background();
+        }
+    }
+}
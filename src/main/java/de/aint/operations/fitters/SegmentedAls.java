@@ -0,0 +1,63 @@
+package de.aint.operations.fitters;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+//Parallel ALS for long spectra : the penalty only couples neighbouring channels, so overlapping segments
+//are solved concurrently on the common ForkJoin pool and blended with linear ramps across the overlaps
+public final class SegmentedAls {
+
+    private SegmentedAls() {}
+
+    public static double[] estimate(double[] counts, double lambda, double p, int maxIter, int segmentSize, int overlap) {
+        int n = counts.length;
+        //Short spectrum => one segment, no need for the pool
+        if (segmentSize <= 0 || n <= segmentSize) {
+            return solveSegment(counts, 0, n, lambda, p, maxIter);
+        }
+        int ov = Math.max(0, Math.min(overlap, segmentSize / 2));
+        int step = segmentSize - ov;
+        int segments = (int) Math.ceil((double) (n - ov) / step);
+
+        //Last segment is aligned to the end, so it is never shorter than segmentSize
+        int[] starts = new int[segments];
+        for (int k = 0; k < segments; k++) {
+            starts[k] = Math.min(k * step, n - segmentSize);
+        }
+
+        double[][] parts = new double[segments][];
+        IntStream.range(0, segments).parallel().forEach(k ->
+            parts[k] = solveSegment(counts, starts[k], starts[k] + segmentSize, lambda, p, maxIter));
+
+        //Blend : weight ramps up over the leading overlap and down over the trailing overlap of each segment
+        double[] background = new double[n];
+        double[] weightSum = new double[n];
+        for (int k = 0; k < segments; k++) {
+            int from = starts[k];
+            double[] part = parts[k];
+            int lead = k > 0 ? starts[k - 1] + segmentSize - from : 0;
+            int trail = k < segments - 1 ? from + segmentSize - starts[k + 1] : 0;
+            for (int j = 0; j < segmentSize; j++) {
+                double w = 1.0;
+                if (j < lead) w = Math.min(w, (j + 1.0) / (lead + 1.0));
+                if (j >= segmentSize - trail) w = Math.min(w, (segmentSize - j) / (trail + 1.0));
+                background[from + j] += w * part[j];
+                weightSum[from + j] += w;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            background[i] /= weightSum[i];
+        }
+        return background;
+    }
+
+    private static double[] solveSegment(double[] counts, int from, int to, double lambda, double p, int maxIter) {
+        double[] segment = from == 0 && to == counts.length ? counts : Arrays.copyOfRange(counts, from, to);
+        int len = segment.length;
+        double[] weights = new double[len];
+        Arrays.fill(weights, 1.0);
+        double[] background = new double[len];
+        FitterHelper.runAls(segment, p, maxIter, new PentadiagonalSolver(len, lambda), weights, background);
+        return background;
+    }
+}
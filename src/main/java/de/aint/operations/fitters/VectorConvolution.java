@@ -0,0 +1,38 @@
+package de.aint.operations.fitters;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+//Vector API tap loop, only loaded if jdk.incubator.vector is available (see ConvolutionEngine)
+final class VectorConvolution {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private VectorConvolution() {}
+
+    static int lanes() {
+        return SPECIES.length();
+    }
+
+    //out[i] = sum_k padded[i + k] * kernel[k], lanes run over consecutive output channels
+    static void convolve(double[] padded, double[] kernel, double[] out) {
+        int n = out.length;
+        int taps = kernel.length;
+        int upper = SPECIES.loopBound(n);
+        int i = 0;
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector acc = DoubleVector.zero(SPECIES);
+            for (int k = 0; k < taps; k++) {
+                DoubleVector tap = DoubleVector.broadcast(SPECIES, kernel[k]);
+                acc = DoubleVector.fromArray(SPECIES, padded, i + k).fma(tap, acc);
+            }
+            acc.intoArray(out, i);
+        }
+        //Scalar tail
+        for (; i < n; i++) {
+            double sum = 0.0;
+            for (int k = 0; k < taps; k++) sum += padded[i + k] * kernel[k];
+            out[i] = sum;
+        }
+    }
+}
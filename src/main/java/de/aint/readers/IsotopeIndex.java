@@ -0,0 +1,121 @@
+package de.aint.readers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import de.aint.models.Isotop;
+
+//Energy-sorted view of the isotope library for peak identification
+//Reads the packed energy / intensity / abundance columns of the table => lookups are a binary search plus a short scan
+//Entries with energy <= 0 (UNK) are not indexed, they can never be a match
+public final class IsotopeIndex {
+
+    //Intensity * abundance below this adds (almost) nothing to the ranking weight
+    static final double STRENGTH_REFERENCE = 1e-4;
+
+    //isotope = candidate, deltaEnergy = isotope energy - peak energy (keV), score = higher is better
+    public record Candidate(Isotop isotope, double deltaEnergy, double score) {}
+
+    private final IsotopeTable table;
+    //Indexed rows are [first, end)
+    private final int first;
+    private final int end;
+
+    public IsotopeIndex(List<Isotop> library) {
+        this(IsotopeTable.of(library));
+    }
+
+    public IsotopeIndex(IsotopeTable table) {
+        this.table = table;
+        this.end = table.size();
+        int lo = 0, hi = end;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (table.energy(mid) <= 0) lo = mid + 1; else hi = mid;
+        }
+        this.first = lo;
+    }
+
+    public int size() {
+        return end - first;
+    }
+
+    //Isotope with the closest energy, null if the index is empty
+    public Isotop nearest(double energy) {
+        int i = nearestRow(energy);
+        return i < 0 ? null : table.isotope(i);
+    }
+
+    //All isotopes within +-tolerance (keV) in ascending energy, O(log n + k)
+    public List<Isotop> withinTolerance(double energy, double tolerance) {
+        int from = lowerBound(energy - tolerance);
+        int to = upperBound(energy + tolerance);
+        List<Isotop> hits = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) hits.add(table.isotope(i));
+        return hits;
+    }
+
+    //Candidates within +-tolerance ranked best first, at most limit (0 => all)
+    //score = closeness * weight, closeness = 1 - (dE / tolerance)^2 in [0, 1],
+    //weight = 1 + log10(1 + intensity * abundance / STRENGTH_REFERENCE) favours strong lines of common isotopes
+    public List<Candidate> rank(double energy, double tolerance, int limit) {
+        int from = lowerBound(energy - tolerance);
+        int to = upperBound(energy + tolerance);
+        int k = to - from;
+        //Scored on the columns first, Isotop objects only for the rows that are returned
+        double[] scores = new double[k];
+        Integer[] rows = new Integer[k];
+        for (int i = from; i < to; i++) {
+            double delta = table.energy(i) - energy;
+            double closeness = tolerance > 0 ? 1.0 - (delta / tolerance) * (delta / tolerance) : 1.0;
+            double weight = 1.0 + Math.log10(1.0 + table.intensity(i) * table.abundance(i) / STRENGTH_REFERENCE);
+            scores[i - from] = closeness * weight;
+            rows[i - from] = i;
+        }
+        Arrays.sort(rows, Comparator.<Integer>comparingDouble(i -> -scores[i - from])
+                .thenComparingDouble(i -> Math.abs(table.energy(i) - energy)));
+        int n = limit > 0 ? Math.min(limit, k) : k;
+        List<Candidate> candidates = new ArrayList<>(n);
+        for (int a = 0; a < n; a++) {
+            int i = rows[a];
+            candidates.add(new Candidate(table.isotope(i), table.energy(i) - energy, scores[i - from]));
+        }
+        return candidates;
+    }
+
+    //Best ranked candidate within +-tolerance, null if there is none
+    public Isotop best(double energy, double tolerance) {
+        List<Candidate> candidates = rank(energy, tolerance, 1);
+        return candidates.isEmpty() ? null : candidates.getFirst().isotope();
+    }
+
+    private int nearestRow(double energy) {
+        if (end == first) return -1;
+        int i = lowerBound(energy);
+        if (i == end) return end - 1;
+        if (i == first) return first;
+        return energy - table.energy(i - 1) <= table.energy(i) - energy ? i - 1 : i;
+    }
+
+    //First indexed row with energy >= e
+    private int lowerBound(double e) {
+        int lo = first, hi = end;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (table.energy(mid) < e) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    //First indexed row with energy > e
+    private int upperBound(double e) {
+        int lo = first, hi = end;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (table.energy(mid) <= e) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+}
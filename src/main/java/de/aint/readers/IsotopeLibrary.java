@@ -0,0 +1,136 @@
+package de.aint.readers;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import de.aint.models.Isotop;
+
+//Application-wide isotope library, shared by all detectors and pipelines
+//Backed by the compiled IsotopeTable : memory-mapped from binaryPath, which is (re)generated from classpath:isotop_details.txt
+//on first run or when the text file changed (length + CRC-32 of its content) => later starts map the file instead of parsing 31k lines
+//Immutable (Isotop is immutable too) => safe to use from any thread without copying
+@Component
+public final class IsotopeLibrary {
+
+    private static final Logger logger = LoggerFactory.getLogger(IsotopeLibrary.class);
+
+    public static final String RESOURCE = "isotop_details.txt";
+
+    private final IsotopeTable table;
+    private final IsotopeIndex index;
+    private final Isotop unknown;
+    //File order, built on first use and then shared (the endpoint and custom spectra read all of it)
+    private volatile List<Isotop> all;
+
+    //Spring : binaryPath empty => parsed from the classpath into memory on every start
+    @Autowired
+    public IsotopeLibrary(@Value("${specanalysis.isotopes.binary-path:}") String binaryPath) {
+        this(load(binaryPath));
+    }
+
+    public IsotopeLibrary(List<Isotop> isotopes) {
+        this(IsotopeTable.of(isotopes));
+    }
+
+    public IsotopeLibrary(IsotopeTable table) {
+        if (table.size() == 0) throw new IllegalArgumentException("Isotope library must contain at least UNK.");
+        this.table = table;
+        this.index = new IsotopeIndex(table);
+        this.unknown = table.isotope(table.rowOfFileEntry(0));
+    }
+
+    //All isotopes in file order, unmodifiable
+    public List<Isotop> all() {
+        List<Isotop> list = all;
+        if (list == null) {
+            synchronized (this) {
+                list = all;
+                if (list == null) {
+                    List<Isotop> built = new ArrayList<>(table.size());
+                    for (int j = 0; j < table.size(); j++) built.add(table.isotope(table.rowOfFileEntry(j)));
+                    all = list = List.copyOf(built);
+                }
+            }
+        }
+        return list;
+    }
+
+    //"UNK", returned when nothing matches
+    public Isotop unknown() {
+        return unknown;
+    }
+
+    //Energy-sorted lookups for peak identification
+    public IsotopeIndex index() {
+        return index;
+    }
+
+    public int size() {
+        return table.size();
+    }
+
+    private static IsotopeTable load(String binaryPath) {
+        long start = System.nanoTime();
+        try (InputStream in = IsotopeLibrary.class.getClassLoader().getResourceAsStream(RESOURCE)) {
+            if (in == null) throw new IllegalStateException("Isotope library " + RESOURCE + " not found on the classpath.");
+            //Read once : checksummed for the staleness check, parsed from memory if needed
+            byte[] source = in.readAllBytes();
+
+            if (binaryPath == null || binaryPath.isBlank()) {
+                return IsotopeTable.of(parse(new ByteArrayInputStream(source)));
+            }
+            CRC32 crc = new CRC32();
+            crc.update(source);
+            long sourceChecksum = crc.getValue();
+
+            Path file = Path.of(binaryPath);
+            if (Files.isRegularFile(file)) {
+                try {
+                    IsotopeTable table = IsotopeTable.open(file);
+                    if (table.getSourceLength() == source.length && table.getSourceChecksum() == sourceChecksum) {
+                        logger.info("Mapped {} isotopes from {} in {} us", table.size(), file, (System.nanoTime() - start) / 1000);
+                        return table;
+                    }
+                    logger.info("Isotope table {} is outdated, recompiling", file);
+                } catch (IllegalArgumentException | IOException e) {
+                    logger.warn("Isotope table {} unreadable ({}), recompiling", file, e.getMessage());
+                }
+            }
+
+            List<Isotop> isotopes = parse(new ByteArrayInputStream(source));
+            try {
+                IsotopeTable.write(isotopes, file, source.length, sourceChecksum);
+                IsotopeTable table = IsotopeTable.open(file);
+                logger.info("Compiled {} isotopes from classpath:{} to {}", table.size(), RESOURCE, file);
+                return table;
+            } catch (IOException e) {
+                logger.warn("Could not write isotope table {} ({}), using it from memory", file, e.getMessage());
+                return IsotopeTable.of(isotopes);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading isotopes from classpath:" + RESOURCE, e);
+        }
+    }
+
+    private static List<Isotop> parse(InputStream in) throws IOException {
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            return IsotopeReader.parse(br);
+        }
+    }
+}
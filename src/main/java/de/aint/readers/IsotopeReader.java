@@ -4,6 +4,7 @@ import de.aint.models.Isotop;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.io.IOException;
 import java.util.ArrayList;
 
 import org.slf4j.Logger;
@@ -21,27 +22,32 @@ public class IsotopeReader {
     }
 
     public void readIsotopes(){
-        this.isotopes.add(new Isotop("0", "UNK", 0, 0, 0));
-        this.isotopes.add(new Isotop("1", "ANNH", 511, 0, 0));
         File file = new File(filePath);
         try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            String line;
-            line = br.readLine(); // Skip header line
-            line = br.readLine(); // Skip Annhilation Peak
-            while ((line = br.readLine()) != null) {
+            this.isotopes = parse(br);
+        } catch(Exception e) {
+            logger.error("Error reading isotopes from file: {}", filePath, e);
+
+        }
+    }
+
+    //isotop_details.txt format, UNK and ANNH are always the first two entries
+    public static ArrayList<Isotop> parse(BufferedReader br) throws IOException {
+        ArrayList<Isotop> isotopes = new ArrayList<>();
+        isotopes.add(new Isotop("0", "UNK", 0, 0, 0));
+        isotopes.add(new Isotop("1", "ANNH", 511, 0, 0));
+        String line;
+        line = br.readLine(); // Skip header line
+        line = br.readLine(); // Skip Annhilation Peak
+        while ((line = br.readLine()) != null) {
             String[] args = line.trim().split("\\s+");
             String id = args[0];
             String symbol = args[1];
             double energy = Double.parseDouble(args[2]);
             double intensity = Double.parseDouble(args[3]);
             double abundance = Double.parseDouble(args[4]);
-            this.isotopes.add(new Isotop(id, symbol, energy, intensity, abundance));
-            }
-            
-
-        } catch(Exception e) {
-            logger.error("Error reading isotopes from file: {}", filePath, e);
-
+            isotopes.add(new Isotop(id, symbol, energy, intensity, abundance));
         }
+        return isotopes;
     }
 }
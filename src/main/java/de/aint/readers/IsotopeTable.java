@@ -0,0 +1,202 @@
+package de.aint.readers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.aint.models.Isotop;
+
+//Compiled, columnar form of isotop_details.txt : rows sorted by energy, numbers as packed doubles, strings in a table
+//Opened with FileChannel.map => no parsing and no per-isotope objects, Isotop instances are only created for hits
+//Read only and accessed with absolute gets => safe to share between threads
+//
+//Layout (little endian), c = rows, s = distinct symbols, b = string bytes :
+//  0  int    magic "ISOL"          4  int  version       8  int count c     12 int symbol count s
+//  16 long   source length         24 long source checksum (CRC-32 of the text file)
+//  32 double energy[c], intensity[c], abundance[c]
+//     int    symbolIndex[c], fileOrder[c] (row of the j-th file entry), idOffset[c + 1], symbolOffset[s + 1]
+//     byte   strings[b]            ids then symbols, UTF-8, offsets relative to the start of strings
+public final class IsotopeTable {
+
+    static final int MAGIC = 0x49534F4C;
+    static final int VERSION = 2;
+    private static final int HEADER = 32;
+
+    private final ByteBuffer buf;
+    private final int count;
+    private final int symbolCount;
+    private final long sourceLength;
+    private final long sourceChecksum;
+    private final int energyPos, intensityPos, abundancePos, symbolIndexPos, fileOrderPos, idOffsetPos, symbolOffsetPos, stringPos;
+    //Decoded once, there are only ~100 elements
+    private final String[] symbols;
+
+    private IsotopeTable(ByteBuffer buf) {
+        this.buf = buf.order(ByteOrder.LITTLE_ENDIAN);
+        if (buf.capacity() < HEADER || buf.getInt(0) != MAGIC) throw new IllegalArgumentException("Not an isotope table.");
+        if (buf.getInt(4) != VERSION) throw new IllegalArgumentException("Unsupported isotope table version " + buf.getInt(4) + ".");
+        this.count = buf.getInt(8);
+        this.symbolCount = buf.getInt(12);
+        this.sourceLength = buf.getLong(16);
+        this.sourceChecksum = buf.getLong(24);
+
+        this.energyPos = HEADER;
+        this.intensityPos = energyPos + 8 * count;
+        this.abundancePos = intensityPos + 8 * count;
+        this.symbolIndexPos = abundancePos + 8 * count;
+        this.fileOrderPos = symbolIndexPos + 4 * count;
+        this.idOffsetPos = fileOrderPos + 4 * count;
+        this.symbolOffsetPos = idOffsetPos + 4 * (count + 1);
+        this.stringPos = symbolOffsetPos + 4 * (symbolCount + 1);
+        if (count < 0 || symbolCount < 0 || stringPos > buf.capacity()
+                || stringPos + (long) buf.getInt(symbolOffsetPos + 4 * symbolCount) > buf.capacity()) {
+            throw new IllegalArgumentException("Truncated isotope table.");
+        }
+
+        this.symbols = new String[symbolCount];
+        for (int k = 0; k < symbolCount; k++) {
+            symbols[k] = string(buf.getInt(symbolOffsetPos + 4 * k), buf.getInt(symbolOffsetPos + 4 * (k + 1)));
+        }
+    }
+
+    //In-memory table, same format as the file
+    public static IsotopeTable of(List<Isotop> isotopes) {
+        return new IsotopeTable(encode(isotopes, 0, 0));
+    }
+
+    public static IsotopeTable open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            //The mapping stays valid after the channel is closed
+            return new IsotopeTable(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    //sourceLength / sourceChecksum identify the text file it was compiled from, written via temp file + move
+    //(content based : a rebuilt jar with fixed timestamps still recompiles when the text changed)
+    public static void write(List<Isotop> isotopes, Path file, long sourceLength, long sourceChecksum) throws IOException {
+        ByteBuffer encoded = encode(isotopes, sourceLength, sourceChecksum);
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                while (encoded.hasRemaining()) channel.write(encoded);
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static ByteBuffer encode(List<Isotop> isotopes, long sourceLength, long sourceChecksum) {
+        int c = isotopes.size();
+        //Stable sort => file order for equal energies
+        Integer[] order = new Integer[c];
+        for (int j = 0; j < c; j++) order[j] = j;
+        Arrays.sort(order, Comparator.comparingDouble(j -> isotopes.get(j).energy));
+
+        Map<String, Integer> symbolIds = new LinkedHashMap<>();
+        byte[][] ids = new byte[c][];
+        int[] symbolIndex = new int[c];
+        int[] fileOrder = new int[c];
+        int idBytes = 0;
+        for (int row = 0; row < c; row++) {
+            Isotop iso = isotopes.get(order[row]);
+            fileOrder[order[row]] = row;
+            ids[row] = iso.id.getBytes(StandardCharsets.UTF_8);
+            idBytes += ids[row].length;
+            symbolIndex[row] = symbolIds.computeIfAbsent(iso.symbol, k -> symbolIds.size());
+        }
+        byte[][] symbols = symbolIds.keySet().stream().map(sym -> sym.getBytes(StandardCharsets.UTF_8)).toArray(byte[][]::new);
+        int s = symbols.length;
+        int symbolBytes = Arrays.stream(symbols).mapToInt(b -> b.length).sum();
+
+        int size = HEADER + 3 * 8 * c + 2 * 4 * c + 4 * (c + 1) + 4 * (s + 1) + idBytes + symbolBytes;
+        ByteBuffer buf = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC).putInt(VERSION).putInt(c).putInt(s).putLong(sourceLength).putLong(sourceChecksum);
+        for (int row = 0; row < c; row++) buf.putDouble(isotopes.get(order[row]).energy);
+        for (int row = 0; row < c; row++) buf.putDouble(isotopes.get(order[row]).intensity);
+        for (int row = 0; row < c; row++) buf.putDouble(isotopes.get(order[row]).isotope_abundance);
+        for (int row = 0; row < c; row++) buf.putInt(symbolIndex[row]);
+        for (int j = 0; j < c; j++) buf.putInt(fileOrder[j]);
+        int offset = 0;
+        for (int row = 0; row < c; row++) {
+            buf.putInt(offset);
+            offset += ids[row].length;
+        }
+        buf.putInt(offset);
+        for (int k = 0; k < s; k++) {
+            buf.putInt(offset);
+            offset += symbols[k].length;
+        }
+        buf.putInt(offset);
+        for (byte[] id : ids) buf.put(id);
+        for (byte[] symbol : symbols) buf.put(symbol);
+        return buf.flip();
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public long getSourceLength() {
+        return sourceLength;
+    }
+
+    public long getSourceChecksum() {
+        return sourceChecksum;
+    }
+
+    //Rows are in ascending energy
+    public double energy(int row) {
+        return buf.getDouble(energyPos + 8 * row);
+    }
+
+    public double intensity(int row) {
+        return buf.getDouble(intensityPos + 8 * row);
+    }
+
+    public double abundance(int row) {
+        return buf.getDouble(abundancePos + 8 * row);
+    }
+
+    public String symbol(int row) {
+        return symbols[buf.getInt(symbolIndexPos + 4 * row)];
+    }
+
+    public String id(int row) {
+        return string(buf.getInt(idOffsetPos + 4 * row), buf.getInt(idOffsetPos + 4 * (row + 1)));
+    }
+
+    //Row of the j-th entry of the source file
+    public int rowOfFileEntry(int j) {
+        return buf.getInt(fileOrderPos + 4 * j);
+    }
+
+    //New object per call, only for rows that are actually returned
+    public Isotop isotope(int row) {
+        return new Isotop(id(row), symbol(row), energy(row), intensity(row), abundance(row));
+    }
+
+    private String string(int from, int to) {
+        byte[] bytes = new byte[to - from];
+        buf.get(stringPos + from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
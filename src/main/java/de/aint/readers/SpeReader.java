@@ -29,6 +29,7 @@ public class SpeReader extends Reader{
             int dataStart = -1, dataEnd = -1;
             List<Double> counts = new ArrayList<>();
             double[] calibration = null;
+            double liveTime = 0;
 
             while ((line = br.readLine()) != null) {
                 line = line.trim();
@@ -42,6 +43,13 @@ public class SpeReader extends Reader{
                     dataEnd = Integer.parseInt(range[1]);
                     continue;
                 }
+                //Look for $MEAS_TIM (live time, real time in s)
+                if (line.startsWith("$MEAS_TIM:")) {
+                    String timeLine = br.readLine();
+                    if (timeLine == null) break;
+                    liveTime = Double.parseDouble(timeLine.trim().split("\\s+")[0]);
+                    continue;
+                }
                 //Look for$MCA_CAL (energy Calibration)
                 if (line.startsWith("$MCA_CAL:")) {
                     inCal = true;
@@ -83,7 +91,9 @@ public class SpeReader extends Reader{
             assert calibration != null;
             assert calibration.length == 3;
             logger.info("Read SPE spectrum from file: {}", src);
-            return new Spectrum(countsArr, calibration[0], calibration[1], calibration[2]);
+            Spectrum spectrum = new Spectrum(countsArr, calibration[0], calibration[1], calibration[2]);
+            spectrum.setLiveTime(liveTime);
+            return spectrum;
         }
 
     }
@@ -0,0 +1,25 @@
+package de.aint.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import de.aint.operations.fitters.RoiFitExecutor;
+
+//Beans for peak fitting, built from the specanalysis.roi-fit.* properties
+@Configuration
+public class FittingConfiguration {
+
+    private static final Logger log = LoggerFactory.getLogger(FittingConfiguration.class);
+
+    //parallelism 0 => number of cores, the pool is shut down with the context (@PreDestroy)
+    @Bean
+    public RoiFitExecutor roiFitExecutor(@Value("${specanalysis.roi-fit.mode:FORK_JOIN}") RoiFitExecutor.Mode mode,
+                                         @Value("${specanalysis.roi-fit.parallelism:0}") int parallelism) {
+        RoiFitExecutor executor = new RoiFitExecutor(mode, parallelism);
+        log.info("ROI fitting uses {} with parallelism {}", executor.getMode(), executor.getParallelism());
+        return executor;
+    }
+}
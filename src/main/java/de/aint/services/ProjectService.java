@@ -9,6 +9,7 @@ import de.aint.models.Project;
 import de.aint.models.Spectrum;
 import de.aint.models.Persistence.Project.ProjectEntity;
 import de.aint.models.Persistence.Project.ProjectPersistanceService;
+import de.aint.operations.calculators.SpectrumSummation;
 import jakarta.transaction.Transactional;
 
 @Service
@@ -65,4 +66,10 @@ public class ProjectService {
     public List<Spectrum> getSpectraForProject(Long projectID) {
         return projectPersistanceService.getSpectraForProject(projectID);
     }
+
+    //All spectra of the project summed (or averaged) in one parallel pass
+    @Transactional
+    public Spectrum combineSpectraForProject(Long projectID, SpectrumSummation.Operation operation, SpectrumSummation.Weighting weighting) {
+        return SpectrumSummation.combine(getSpectraForProject(projectID), operation, weighting);
+    }
 }
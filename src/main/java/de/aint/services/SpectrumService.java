@@ -2,19 +2,25 @@ package de.aint.services;
 
 import de.aint.builders.SpectrumBuilder;
 import de.aint.detectors.PeakDetection;
+import de.aint.libraries.SmoothingLib;
+import de.aint.libraries.SmoothingLibLoader;
 import de.aint.models.Isotop;
 import de.aint.models.ROI;
 import de.aint.models.Spectrum;
 import de.aint.models.Persistence.Roi.RoiDTO;
 import de.aint.models.Persistence.Spec.SpectrumEntity;
 import de.aint.models.Persistence.Spec.SpectrumPersistanceService;
+import de.aint.operations.calculators.SpectrumExpression;
+import de.aint.operations.fitters.FitBudget;
 import de.aint.operations.fitters.FittingData;
-import de.aint.readers.IsotopeReader;
+import de.aint.operations.fitters.GlobalPeakFitter;
+import de.aint.operations.fitters.MultiResolutionAls;
+import de.aint.operations.fitters.RoiFitExecutor;
+import de.aint.readers.IsotopeLibrary;
 import de.aint.readers.Reader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.ResourceLoader;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import jakarta.annotation.PostConstruct;
@@ -22,44 +28,53 @@ import jakarta.transaction.TransactionScoped;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
-import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
 @Service
 public class SpectrumService {
     private static final Logger log = LoggerFactory.getLogger(SpectrumService.class);
 
-    private final ResourceLoader resourceLoader;
     private final SpectrumPersistanceService spectrumPersistanceService;
     private final Map<String, Spectrum> spectrumCache = new ConcurrentHashMap<>();
 
     private final int[] channels = {1677, 391, 3722, 5740};
     private final double[] energies = {2223.248, 511, 4945.301, 7631.136};
 
-    private IsotopeReader isotopeReader;
-    private List<Isotop> isotopes = Collections.emptyList();
-
-    public SpectrumService(ResourceLoader resourceLoader, SpectrumPersistanceService spectrumPersistanceService) {
-        this.resourceLoader = resourceLoader;
+    //Fit budgets, 0 => unlimited
+    @Value("${specanalysis.fit.request-millis:0}")
+    private long fitRequestMillis;
+    @Value("${specanalysis.fit.request-evaluations:0}")
+    private long fitRequestEvaluations;
+    @Value("${specanalysis.fit.roi-millis:0}")
+    private long fitRoiMillis;
+    @Value("${specanalysis.fit.roi-evaluations:0}")
+    private int fitRoiEvaluations;
+
+    private final IsotopeLibrary isotopeLibrary;
+    private final RoiFitExecutor roiFitExecutor;
+
+    public SpectrumService(SpectrumPersistanceService spectrumPersistanceService, IsotopeLibrary isotopeLibrary,
+                           RoiFitExecutor roiFitExecutor) {
         this.spectrumPersistanceService = spectrumPersistanceService;
+        this.isotopeLibrary = isotopeLibrary;
+        this.roiFitExecutor = roiFitExecutor;
     }
 
+    //Background backend + fit budget defaults, the ROI executor is a bean (FittingConfiguration)
     @PostConstruct
-    void initIsotopes() throws IOException {
-        Resource res = resourceLoader.getResource("classpath:isotop_details.txt");
-        File tmp = File.createTempFile("isotopes_", ".txt");
-        try (var in = res.getInputStream()) {
-            Files.copy(in, tmp.toPath(), REPLACE_EXISTING);
-        } // TODO : Streams
-        isotopeReader = new IsotopeReader(tmp.getAbsolutePath());
-        isotopeReader.readIsotopes();
-        this.isotopes = new ArrayList<>(isotopeReader.isotopes);
-        log.info("Loaded {} isotopes", isotopes.size());
+    void init() {
+        double latencyMs = SmoothingLibLoader.measureLatency(8192, 5);
+        log.info("Fast ALS backend: {}, {} ms per 8192-channel background", SmoothingLib.INSTANCE.getBackendName(), String.format("%.2f", latencyMs));
+
+        FitBudget.configureDefaults(new FitBudget.Limits(fitRequestMillis, fitRequestEvaluations, fitRoiMillis, fitRoiEvaluations));
+        log.info("Fit budget per request: {} ms, {} evaluations; per ROI: {} ms, {} evaluations (0 = unlimited)",
+                fitRequestMillis, fitRequestEvaluations, fitRoiMillis, fitRoiEvaluations);
     }
 
+    public record BackgroundEstimate(Spectrum spectrum, int iterations, int iterationsSaved) {}
+
     @Transaction
     public Long addSpectrum(String name, Spectrum spectrum){
         return spectrumPersistanceService.save(name, spectrum);
@@ -90,7 +105,7 @@ public class SpectrumService {
     }
 
     public List<Isotop> getIsotopes() {
-        return isotopes;
+        return isotopeLibrary.all();
     }
 
     public Spectrum uploadAndParse(File file) throws IOException {
@@ -127,6 +142,10 @@ public class SpectrumService {
             String key = name+"_smoothed_window" + windowSize + "_poly2_outliersTrue_iters" + iterations;
             return spectrumCache.computeIfAbsent(key,
                     k -> SpectrumBuilder.createSmoothedSpectrumUsingSG(s, windowSize, 2, true, iterations));
+        } else if ("GAUSS_RECURSIVE".equalsIgnoreCase(algorithm)) {
+            String key = name+"_GaussRecursive_sigma" + sigma;
+            return spectrumCache.computeIfAbsent(key,
+                    k -> SpectrumBuilder.createSmoothedSpectrumUsingRecursiveGauss(s, sigma));
         } else {
             String key = name+"_Gauss_sigma" + sigma;
             return spectrumCache.computeIfAbsent(key,
@@ -135,9 +154,24 @@ public class SpectrumService {
     }
 
     public Spectrum getBackgroundById(Long id, String source) {
+        return getBackgroundById(id, source, "ALS", 0);
+    }
+
+    //algorithm : ALS (default params) or SNIP (window 0 => standart window)
+    public Spectrum getBackgroundById(Long id, String source, String algorithm, int window) {
         Spectrum s = ensureSpectrumLoaded(id);
         String name = s.getName();
-        if(source.equalsIgnoreCase("smoothed")){
+        boolean smoothed = source.equalsIgnoreCase("smoothed");
+        if (!"ALS".equalsIgnoreCase(algorithm) && !"SNIP".equalsIgnoreCase(algorithm)) {
+            throw new IllegalArgumentException("Unknown background algorithm " + algorithm + ", expected ALS or SNIP");
+        }
+        if ("SNIP".equalsIgnoreCase(algorithm)) {
+            int w = window != 0 ? window : FittingData.GenericOpts.snipWindow;
+            String key = name + (smoothed ? "_snip_smoothed_window" : "_snip_default_window") + w;
+            return spectrumCache.computeIfAbsent(key,
+                    k -> SpectrumBuilder.createSnipBackgroundSpectrum(smoothed ? SpectrumBuilder.createSmoothedSpectrumUsingGauss(s, 0) : s, w));
+        }
+        if(smoothed){
             String key = name+"_als_smoothed_lambda" + FittingData.GenericOpts.lambda + "_p" + FittingData.GenericOpts.p + "_maxIters" + FittingData.GenericOpts.maxIter;
             return spectrumCache.computeIfAbsent(key,
                     k -> SpectrumBuilder.createBackgroundSpectrum(SpectrumBuilder.createSmoothedSpectrumUsingGauss(s, 0)));
@@ -146,26 +180,73 @@ public class SpectrumService {
             return spectrumCache.computeIfAbsent(key,
                     k -> SpectrumBuilder.createBackgroundSpectrum(s));
         }
+    }
+
+    //Background with user params (sliders), not cached since the warm start makes re-estimation cheap
+    public BackgroundEstimate estimateBackgroundById(Long id, String source, double lambda, double p, int maxIter) {
+        Spectrum s = ensureSpectrumLoaded(id);
+        Spectrum input = source.equalsIgnoreCase("smoothed") ? SpectrumBuilder.createSmoothedSpectrumUsingGauss(s, 0) : s;
+        FittingData data = new FittingData(input);
+        Spectrum background = SpectrumBuilder.createBackgroundSpectrum(input, data, lambda, p, maxIter);
+        return new BackgroundEstimate(background, data.getIterations(), data.getIterationsSaved());
+    }
 
-        
+    //Accuracy + timing of the multi-resolution background against plain ALS, put 0 for standart vals
+    public MultiResolutionAls.Comparison compareMultiResBackgroundById(Long id, int binFactor, int refineIter) {
+        Spectrum s = ensureSpectrumLoaded(id);
+        int f = binFactor != 0 ? binFactor : FittingData.GenericOpts.binFactor;
+        int r = refineIter != 0 ? refineIter : FittingData.GenericOpts.refineIter;
+        MultiResolutionAls.Comparison c = MultiResolutionAls.compareWithAls(s.getCounts(), FittingData.GenericOpts.lambda,
+                FittingData.GenericOpts.p, FittingData.GenericOpts.maxIter, f, r);
+        log.info("Multi-resolution background vs ALS: max abs diff {}, rel rms diff {}, {} ms vs {} ms", c.maxAbsDiff(), c.relRmsDiff(), c.multiResMs(), c.alsMs());
+        return c;
     }
 
     public Spectrum getCustomById(Long id, String source, List<String> selectedIsotopes) {
         Spectrum s = ensureSpectrumLoaded(id);
         Spectrum[] variants = SpectrumBuilder.createSpectrumVariants(s);
         if ("isotopes".equalsIgnoreCase(source)) {
-            return SpectrumBuilder.createCustomSpectrum(variants[3], new ArrayList<>(selectedIsotopes), isotopeReader);
+            return SpectrumBuilder.createCustomSpectrum(variants[3], new ArrayList<>(selectedIsotopes), isotopeLibrary);
         } else if ("peaks".equalsIgnoreCase(source)) {
-            ROI[] rois = PeakDetection.splitSpectrumIntoRois(s);
-            return SpectrumBuilder.createPeakFitSpectrum(variants[3], rois);
+            ROI[] rois = PeakDetection.splitSpectrumIntoRois(s, isotopeLibrary);
+            return SpectrumBuilder.createPeakFitSpectrum(variants[3], rois, roiFitExecutor, FitBudget.forRequest());
+        } else if ("peaks_global".equalsIgnoreCase(source)) {
+            //Shared FWHM curve over all ROIs, the builder only fits ROIs the global fit left without params
+            ROI[] rois = PeakDetection.splitSpectrumIntoRois(s, isotopeLibrary);
+            FitBudget budget = FitBudget.forRequest();
+            GlobalPeakFitter.fit(rois, 100, budget);
+            return SpectrumBuilder.createPeakFitSpectrum(variants[3], rois, roiFitExecutor, budget);
         }
         return null;
     }
 
+    //Expression like "A - 0.8*B + C/2", names bound to stored spectrum IDs, evaluated in one fused pass
+    public Spectrum evaluateExpression(String expression, Map<String, Long> spectrumIds) {
+        SpectrumExpression parsed = SpectrumExpression.parse(expression);
+        Map<Long, Spectrum> loaded = new HashMap<>();
+        Map<String, Spectrum> bindings = new HashMap<>();
+        for (String name : parsed.variables()) {
+            Long id = spectrumIds == null ? null : spectrumIds.get(name);
+            if (id == null) {
+                throw new IllegalArgumentException("No spectrum ID given for '" + name + "'");
+            }
+            //Same ID under two names => same spectrum, rebinned once
+            Spectrum s = loaded.computeIfAbsent(id, this::getSpectrumByID);
+            if (s == null) {
+                throw new IllegalArgumentException("Invalid spectrum ID " + id + " for '" + name + "'");
+            }
+            bindings.put(name, s);
+        }
+        return parsed.evaluate(bindings);
+    }
+
     public RoiDTO[] getPeaksById(Long id) {
         Spectrum s = ensureSpectrumLoaded(id);
-        ROI[] rois = PeakDetection.splitSpectrumIntoRois(s);
-        for (var roi : rois) roi.setAreaOverBackground();
+        ROI[] rois = PeakDetection.splitSpectrumIntoRois(s, isotopeLibrary);
+        //Fit first under the request budget, the area reuses the fitted params
+        FitBudget budget = FitBudget.forRequest();
+        roiFitExecutor.fitPeaks(rois, budget);
+        roiFitExecutor.setAreasOverBackground(rois, budget);
         return Arrays.stream(rois).map(RoiDTO::new).toArray(RoiDTO[]::new);
     }
 }
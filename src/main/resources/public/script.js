@@ -236,15 +236,17 @@ async function fetchSpectrum(endpoint, iterations, windowSize, sigma, background
     if (algorithm === "SG") {
       if (iterations) params.push("iterations=" + iterations);
       if (windowSize) params.push("window_size=" + windowSize);
-    } else if (algorithm === "Gauss") {
+    } else if (algorithm === "Gauss" || algorithm === "GAUSS_RECURSIVE") {
       const sigmaInput = $('.sigma-input[data-endpoint="/smoothed"]');
       if (sigmaInput) params.push("sigma=" + sigmaInput.value);
     }
   }
 
-  // Background source
+  // Background source & algorithm
   if (endpoint === "/background") {
     if (backgroundSource) params.push("source=" + backgroundSource);
+    const bgAlgo = $('.background-algorithm[data-endpoint="/background"]');
+    if (bgAlgo) params.push("algorithm=" + encodeURIComponent(bgAlgo.value));
   }
 
   // Custom: optional isotopes & source (isotopes/peaks)
@@ -461,7 +463,7 @@ function wirePlotControls() {
   $$(".spectrum-checkbox").forEach(cb => cb.addEventListener("change", plotSelectedSpectra));
 
   // inputs for smoothed (iterations, window) and others
-  $$(".iteration-input, .window-input, .sigma-input, .background-source, .custom-source").forEach(inp => {
+  $$(".iteration-input, .window-input, .sigma-input, .background-source, .background-algorithm, .custom-source").forEach(inp => {
     inp.addEventListener("change", plotSelectedSpectra);
   });
 
@@ -473,7 +475,7 @@ function wirePlotControls() {
     algo.addEventListener("change", () => {
       const val = algo.value;
       sg.style.display = (val === "SG") ? "block" : "none";
-      gauss.style.display = (val === "Gauss") ? "block" : "none";
+      gauss.style.display = (val === "Gauss" || val === "GAUSS_RECURSIVE") ? "block" : "none";
       plotSelectedSpectra();
     });
   }
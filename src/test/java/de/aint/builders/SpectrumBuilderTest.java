@@ -0,0 +1,48 @@
+package de.aint.builders;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import de.aint.models.Spectrum;
+
+//Default background : the segmented path for long spectra must give the same post-processed output as ALS_FAST
+class SpectrumBuilderTest {
+
+    @Test
+    void highEnergyTailIsClearedOnBothDefaultPaths() {
+        //~1.33 keV/channel like the repo's detectors => 8k channels end near 11 MeV, 16k near 22 MeV
+        for (int channels : new int[] {8192, 16384}) {
+            Spectrum spec = new Spectrum(counts(channels, new Random(5)), 0.0, 1.33, 0.0);
+            double[] background = SpectrumBuilder.createBackgroundSpectrum(spec).getCounts();
+            double[] energy = spec.getEnergy_per_channel();
+            int tail = 0;
+            for (int i = 0; i < channels; i++) {
+                if (energy[i] > 10000) {
+                    assertTrue(background[i] == 0 || background[i] >= 0.2, channels + " channels, channel " + i + ": " + background[i]);
+                    if (background[i] == 0) tail++;
+                }
+            }
+            assertTrue(tail > 0, channels + " channels: no cleared channel above 10 MeV");
+            assertEquals(channels, background.length);
+        }
+    }
+
+    //Falling continuum that dies out at high energy, plus a few peaks
+    private static double[] counts(int n, Random random) {
+        double[] c = new double[n];
+        for (int i = 0; i < n; i++) {
+            double continuum = 2000.0 * Math.exp(-i / 600.0);
+            c[i] = continuum + Math.sqrt(continuum + 1) * random.nextGaussian() * 0.1;
+            if (c[i] < 0) c[i] = 0;
+        }
+        for (int k = 1; k <= 5; k++) {
+            int mu = k * n / 7;
+            for (int i = mu - 20; i <= mu + 20; i++) c[i] += 500.0 * Math.exp(-0.5 * (i - mu) * (i - mu) / 16.0);
+        }
+        return c;
+    }
+}
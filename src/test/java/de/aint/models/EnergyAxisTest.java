@@ -0,0 +1,91 @@
+package de.aint.models;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+//channelOf against the linear nearest-channel scan it replaced (lower channel on ties)
+class EnergyAxisTest {
+
+    @Test
+    void polynomialMatchesLinearScan() {
+        //offset, slope, quad, channels
+        double[][] calibrations = {
+                {0.0, 0.5, 0.0, 8192},              //linear
+                {-3.2, 0.3662, 0.0, 16384},         //negative offset
+                {1.1, 0.25, 2.5e-7, 8192},          //quadratic, rising
+                {2.0, 0.7, -1.0e-5, 4096},          //quadratic, still monotone
+                {3000.0, -0.35, 0.0, 8192},         //descending
+                {5.0, 0.5, -1.0e-4, 8192},          //turns inside the axis => tabulated
+                {0.0, 1.0, 0.0, 1},                 //single channel
+        };
+        Random random = new Random(22);
+        for (double[] c : calibrations) {
+            int n = (int) c[3];
+            EnergyAxis axis = EnergyAxis.polynomial(c[0], c[1], c[2], n);
+            double[] energies = new double[n];
+            for (int i = 0; i < n; i++) energies[i] = axis.energyOf(i);
+            assertQueries(axis, energies, random, 20_000, "E = " + c[0] + " + " + c[1] + " c + " + c[2] + " c^2");
+        }
+    }
+
+    @Test
+    void tabulatedMatchesLinearScan() {
+        Random random = new Random(23);
+        int n = 4096;
+        double[] ascending = new double[n];
+        double[] descending = new double[n];
+        double[] unordered = new double[n];
+        double e = 10.0;
+        for (int i = 0; i < n; i++) {
+            //Uneven bins like an MCNP tally
+            e += 0.05 + random.nextDouble() * 2.0;
+            ascending[i] = e;
+            descending[n - 1 - i] = e;
+            unordered[i] = random.nextDouble() * 3000.0;
+        }
+        double[] duplicates = ascending.clone();
+        for (int i = 1; i < n; i += 7) duplicates[i] = duplicates[i - 1];
+
+        assertQueries(EnergyAxis.tabulated(ascending), ascending, random, 20_000, "tabulated ascending");
+        assertQueries(EnergyAxis.tabulated(descending), descending, random, 10_000, "tabulated descending");
+        assertQueries(EnergyAxis.tabulated(unordered), unordered, random, 10_000, "tabulated unordered");
+        assertQueries(EnergyAxis.tabulated(duplicates), duplicates, random, 10_000, "tabulated with duplicates");
+    }
+
+    //Random energies over and beyond the axis, every channel energy and every midpoint (ties)
+    private static void assertQueries(EnergyAxis axis, double[] energies, Random random, int randomQueries, String what) {
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        for (double e : energies) {
+            min = Math.min(min, e);
+            max = Math.max(max, e);
+        }
+        double span = Math.max(max - min, 1.0);
+        for (int q = 0; q < randomQueries; q++) {
+            double energy = min - 0.1 * span + random.nextDouble() * 1.2 * span;
+            assertEquals(scan(energies, energy), axis.channelOf(energy), what + ", " + energy + " keV");
+        }
+        for (int i = 0; i < energies.length; i++) {
+            assertEquals(scan(energies, energies[i]), axis.channelOf(energies[i]), what + ", channel " + i);
+            if (i > 0) {
+                double mid = 0.5 * (energies[i - 1] + energies[i]);
+                assertEquals(scan(energies, mid), axis.channelOf(mid), what + ", between " + (i - 1) + " and " + i);
+            }
+        }
+    }
+
+    private static int scan(double[] energies, double energy) {
+        int idx = 0;
+        double minDiff = Math.abs(energy - energies[0]);
+        for (int i = 1; i < energies.length; i++) {
+            double diff = Math.abs(energy - energies[i]);
+            if (diff < minDiff) {
+                minDiff = diff;
+                idx = i;
+            }
+        }
+        return idx;
+    }
+}
@@ -0,0 +1,133 @@
+package de.aint.models;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+//Background cache : one solve per spectrum state, fresh after every change, never current if the state changed mid-solve
+class SpectrumDerivedDataTest {
+
+    private static final int CHANNELS = 4096;
+
+    //Every background solve reads the energies once (high-energy tail cleanup), nothing else on this path does
+    private static class CountingSpectrum extends Spectrum {
+        final AtomicInteger solves = new AtomicInteger();
+        //Set => the next solve changes the calibration while it runs
+        final AtomicBoolean changeDuringSolve = new AtomicBoolean();
+
+        CountingSpectrum(double[] counts) {
+            super(counts, 0.0, 1.33, 0.0);
+        }
+
+        @Override
+        public double[] getEnergy_per_channel() {
+            solves.incrementAndGet();
+            if (changeDuringSolve.getAndSet(false)) changeEnergyCal(new int[] {0, 1000}, new double[] {0.0, 3000.0});
+            return super.getEnergy_per_channel();
+        }
+    }
+
+    @Test
+    void concurrentCallersShareOneSolve() throws Exception {
+        CountingSpectrum spec = new CountingSpectrum(counts());
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch go = new CountDownLatch(1);
+            List<Future<double[]>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                results.add(pool.submit(() -> {
+                    go.await();
+                    return spec.derived().background();
+                }));
+            }
+            go.countDown();
+            double[] first = results.get(0).get();
+            for (Future<double[]> f : results) assertSame(first, f.get());
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(1, spec.solves.get());
+        spec.derived().netCounts();
+        assertEquals(1, spec.solves.get());
+    }
+
+    @Test
+    void everyChangeGivesAFreshBackground() {
+        double[] counts = counts();
+        CountingSpectrum spec = new CountingSpectrum(counts);
+        double[] before = spec.derived().background();
+
+        //New counts array
+        double[] doubled = Arrays.stream(counts).map(c -> 2 * c).toArray();
+        spec.setCounts(doubled);
+        assertNull(spec.getBackgroundCounts());
+        double[] afterCounts = spec.derived().background();
+        assertNotSame(before, afterCounts);
+        assertArrayEquals(reference(doubled, 0.0, 1.33), afterCounts, 0.0);
+
+        //Same array scaled in place
+        spec.setCounts(counts.clone());
+        spec.derived().background();
+        spec.setSrcForce(0.5);
+        spec.normalizeCounts();
+        assertNull(spec.getBackgroundCounts());
+        double[] halved = Arrays.stream(counts).map(c -> 0.5 * c).toArray();
+        assertArrayEquals(reference(halved, 0.0, 1.33), spec.derived().background(), 0.0);
+
+        //Calibration only, counts untouched : 3 keV/ch reaches above 10 MeV => a different tail cleanup
+        double[] beforeCal = spec.derived().background();
+        spec.changeEnergyCal(new int[] {0, 1000}, new double[] {0.0, 3000.0});
+        assertNull(spec.getBackgroundCounts());
+        double[] afterCal = spec.derived().background();
+        assertNotSame(beforeCal, afterCal);
+        assertFalse(Arrays.equals(beforeCal, afterCal));
+        assertArrayEquals(reference(halved, 0.0, 3.0), afterCal, 0.0);
+    }
+
+    @Test
+    void changeDuringASolveLeavesTheResultStale() {
+        CountingSpectrum spec = new CountingSpectrum(counts());
+        spec.changeDuringSolve.set(true);
+        double[] stale = spec.derived().background();
+        //Solved for the old calibration => not current
+        assertNull(spec.getBackgroundCounts());
+        assertEquals(1, spec.solves.get());
+
+        double[] fresh = spec.derived().background();
+        assertEquals(2, spec.solves.get());
+        assertNotSame(stale, fresh);
+        assertSame(fresh, spec.getBackgroundCounts());
+        assertArrayEquals(reference(spec.getCounts(), 0.0, 3.0), fresh, 0.0);
+    }
+
+    private static double[] reference(double[] counts, double offset, double slope) {
+        return new Spectrum(counts, offset, slope, 0.0).derived().background();
+    }
+
+    //Falling continuum that dies out at high channels, plus a few peaks
+    private static double[] counts() {
+        double[] c = new double[CHANNELS];
+        for (int i = 0; i < CHANNELS; i++) c[i] = 2000.0 * Math.exp(-i / 400.0);
+        for (int k = 1; k <= 4; k++) {
+            int mu = k * CHANNELS / 5;
+            for (int i = mu - 20; i <= mu + 20; i++) c[i] += 300.0 * Math.exp(-0.5 * (i - mu) * (i - mu) / 16.0);
+        }
+        return c;
+    }
+}
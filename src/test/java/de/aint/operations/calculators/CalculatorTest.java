@@ -0,0 +1,77 @@
+package de.aint.operations.calculators;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.apache.commons.math3.special.Erf;
+import org.junit.jupiter.api.Test;
+
+import de.aint.models.Peak;
+import de.aint.models.ROI;
+import de.aint.models.Spectrum;
+import de.aint.operations.fitters.FitStatus;
+import de.aint.operations.fitters.PeakShape;
+
+//GAUSS area : closed-form integral against a channel sum of the fitted peaks, uncertainty against the analytic Gaussian one
+class CalculatorTest {
+
+    @Test
+    void peakAreaIsTheChannelSumOfTheFittedPeaks() {
+        //0.1 keV channels, sigma ~ 30 channels => the channel sum is the integral up to ~1e-6
+        Spectrum spec = new Spectrum(new double[20000], 0.37, 0.1, 0.0);
+        double[] p = {25.0, 3.1, 900.0, 800.2, 0.8, 1.2, 0.02, 350.0, 812.7, 0.5, 0.7, 0.01};
+        ROI roi = new ROI(spec, new Peak[] {new Peak(800.2), new Peak(812.7)}, 770.0, 850.0);
+        roi.setFitParams(p, FitStatus.CONVERGED);
+
+        double area = Calculator.AreaAlgos.GAUSS.calculateArea(roi);
+
+        int from = spec.energyAxis().channelOf(roi.getStartEnergy());
+        int to = spec.energyAxis().channelOf(roi.getEndEnergy());
+        double[] E = spec.getEnergy_per_channel();
+        double total = 0.0;
+        for (int k = 0; k < 2; k++) {
+            int offset = 2 + 5 * k;
+            double sum = 0.0;
+            for (int i = from; i <= to; i++) sum += p[offset] * PeakShape.shape(E[i], p[1], p[offset + 1], p[offset + 2], p[offset + 3], p[offset + 4]);
+            assertEquals(sum, roi.getPeakAreas()[k], 1e-5 * sum, "peak " + k);
+            total += sum;
+        }
+        assertEquals(total, area, 1e-5 * total);
+        //No covariance => no uncertainties
+        assertNull(roi.getPeakAreaUncertainties());
+    }
+
+    @Test
+    void gaussianUncertaintyMatchesTheAnalyticOne() {
+        Spectrum spec = new Spectrum(new double[4096], 0.0, 0.5, 0.0);
+        double sigma = 2.4, A = 1200.0, mu = 1001.3;
+        //Pure Gaussian : no tail, no step
+        double[] p = {40.0, sigma, A, mu, 0.0, 1.0, 0.0};
+        int n = p.length;
+        double varSigma = 0.0025, varA = 400.0, covASigma = -0.6, varMu = 0.01;
+        double[] cov = new double[n * n];
+        cov[1 * n + 1] = varSigma;
+        cov[2 * n + 2] = varA;
+        cov[1 * n + 2] = covASigma;
+        cov[2 * n + 1] = covASigma;
+        cov[3 * n + 3] = varMu;
+        cov[0] = 9.0; //B does not enter the peak area
+        ROI roi = new ROI(spec, new Peak[] {new Peak(mu)}, mu - 30.0, mu + 30.0);
+        roi.setFitParams(p, FitStatus.CONVERGED, cov);
+
+        double area = Calculator.AreaAlgos.GAUSS.calculateArea(roi);
+
+        //+-12 sigma => the window edges do not contribute to the sigma / mu derivatives
+        double width = 0.5;
+        double eFrom = spec.getEnergy_per_channel()[spec.energyAxis().channelOf(mu - 30.0)] - 0.5 * width;
+        double eTo = spec.getEnergy_per_channel()[spec.energyAxis().channelOf(mu + 30.0)] + 0.5 * width;
+        double integral = Math.sqrt(Math.PI / 2) * sigma
+                * (Erf.erf((eTo - mu) / (Math.sqrt(2) * sigma)) - Erf.erf((eFrom - mu) / (Math.sqrt(2) * sigma)));
+        double dA = integral / width;
+        double dSigma = A * integral / (sigma * width);
+        double expected = Math.sqrt(varA * dA * dA + varSigma * dSigma * dSigma + 2 * covASigma * dA * dSigma);
+
+        assertEquals(A * integral / width, area, 1e-9 * area);
+        assertEquals(expected, roi.getPeakAreaUncertainties()[0], 1e-6 * expected);
+    }
+}
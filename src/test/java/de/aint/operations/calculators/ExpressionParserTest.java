@@ -0,0 +1,61 @@
+package de.aint.operations.calculators;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import de.aint.models.Spectrum;
+
+//Request input : over-long or over-nested expressions are IllegalArgumentException (400), never a StackOverflowError
+class ExpressionParserTest {
+
+    private static final Spectrum A = new Spectrum(new double[] {1, 2, 3}, 0.0, 1.0, 0.0);
+
+    @Test
+    void nestingIsCapped() {
+        int n = ExpressionParser.MAX_DEPTH;
+        assertArrayEquals(A.getCounts(), evaluate("(".repeat(n) + "A" + ")".repeat(n)), 0.0);
+        assertArrayEquals(A.getCounts(), evaluate("-".repeat(n) + "A"), 0.0);
+
+        assertThrows(IllegalArgumentException.class, () -> SpectrumExpression.parse("(".repeat(n + 1) + "A" + ")".repeat(n + 1)));
+        assertThrows(IllegalArgumentException.class, () -> SpectrumExpression.parse("-".repeat(n + 1) + "A"));
+        assertThrows(IllegalArgumentException.class, () -> SpectrumExpression.parse("+-".repeat(n) + "A"));
+        //Unbalanced input fails at the depth cap before running out of input
+        assertThrows(IllegalArgumentException.class, () -> SpectrumExpression.parse("(".repeat(100_000)));
+    }
+
+    @Test
+    void lengthAndOperatorsAreCapped() {
+        assertThrows(IllegalArgumentException.class, () -> SpectrumExpression.parse("A" + " ".repeat(ExpressionParser.MAX_LENGTH)));
+        assertThrows(IllegalArgumentException.class, () -> SpectrumExpression.parse("A" + "-A".repeat(ExpressionParser.MAX_OPERATORS + 1)));
+        assertThrows(IllegalArgumentException.class, () -> SpectrumExpression.parse("A" + "*1".repeat(ExpressionParser.MAX_OPERATORS + 1)));
+    }
+
+    //Longest accepted chain still evaluates on a small stack (half the default thread stack)
+    @Test
+    void longestChainEvaluatesOnASmallStack() throws InterruptedException {
+        int terms = ExpressionParser.MAX_OPERATORS + 1;
+        String chain = "A" + "-A".repeat(terms - 1);
+        AtomicReference<Object> result = new AtomicReference<>();
+        Thread worker = new Thread(null, () -> {
+            try {
+                result.set(evaluate(chain));
+            } catch (Throwable t) {
+                result.set(t);
+            }
+        }, "expression", 512 * 1024);
+        worker.start();
+        worker.join();
+        double[] expected = {-(terms - 2) * 1.0, -(terms - 2) * 2.0, -(terms - 2) * 3.0};
+        if (result.get() instanceof Throwable t) throw new AssertionError(t);
+        assertArrayEquals(expected, (double[]) result.get(), 1e-9);
+    }
+
+    private static double[] evaluate(String expression) {
+        return SpectrumExpression.parse(expression).evaluate(Map.of("A", A)).getCounts();
+    }
+}
@@ -0,0 +1,144 @@
+package de.aint.operations.calculators;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import de.aint.models.Spectrum;
+import de.aint.operations.calculators.Calculator.CalculatingAlgos;
+
+//Proportional rebinning : conservation, identity, outer edges, and rejection of axes that are not strictly ascending
+class RebinningTest {
+
+    @Test
+    void identityIsExact() {
+        double[] axis = linear(0.3, 0.37, 2048);
+        double[] counts = counts(2048, new Random(1));
+        Rebinning.Plan plan = Rebinning.compute(axis, axis);
+        assertEquals(2048, plan.source().length);
+        assertArrayEquals(counts, plan.apply(counts), 0.0);
+    }
+
+    @Test
+    void countsAreConservedWhereTheAxesOverlap() {
+        Random random = new Random(2);
+        double[] counts = counts(4096, random);
+        double total = sum(counts);
+        double[] from = linear(1.0, 0.5, 4096);
+        //Finer, coarser, shifted and quadratic targets that cover the whole source axis
+        double[][] targets = {
+                linear(0.0, 0.25, 8200),
+                linear(-5.0, 1.7, 1300),
+                linear(0.77, 0.5, 4200),
+                quadratic(-2.0, 0.45, 1.0e-6, 4600),
+        };
+        for (double[] to : targets) {
+            double[] out = Rebinning.compute(from, to).apply(counts);
+            assertEquals(total, sum(out), 1e-9 * total);
+        }
+        //Tabulated (uneven) source onto a uniform grid
+        double[] uneven = new double[1000];
+        double e = 10.0;
+        for (int i = 0; i < uneven.length; i++) uneven[i] = e += 0.2 + random.nextDouble();
+        double[] c = counts(1000, random);
+        double[] out = Rebinning.compute(uneven, linear(0.0, 0.5, 2500)).apply(c);
+        assertEquals(sum(c), sum(out), 1e-9 * sum(c));
+    }
+
+    @Test
+    void partialOverlapKeepsOnlyTheOverlappingFraction() {
+        //Source channels 0..9 at 0..9 keV (edges -0.5 .. 9.5), target 5..14 keV (edges 4.5 .. 14.5)
+        double[] from = linear(0.0, 1.0, 10);
+        double[] to = linear(5.0, 1.0, 10);
+        double[] counts = new double[10];
+        Arrays.fill(counts, 1.0);
+        double[] out = Rebinning.compute(from, to).apply(counts);
+        assertArrayEquals(new double[] {1, 1, 1, 1, 1, 0, 0, 0, 0, 0}, out, 1e-12);
+
+        //Disjoint axes => nothing is moved
+        double[] far = linear(100.0, 1.0, 10);
+        assertEquals(0, Rebinning.compute(from, far).source().length);
+        assertEquals(0.0, sum(Rebinning.compute(from, far).apply(counts)));
+    }
+
+    @Test
+    void singleChannelIsOneKeVWide() {
+        //Single source channel at 10 keV => [9.5, 10.5], split over the 0.5 keV target bins it overlaps
+        double[] out = Rebinning.compute(new double[] {10.0}, linear(9.0, 0.5, 5)).apply(new double[] {8.0});
+        assertArrayEquals(new double[] {0.0, 2.0, 4.0, 2.0, 0.0}, out, 1e-12);
+
+        //Single target channel collects everything within [9.5, 10.5]
+        double[] into = Rebinning.compute(linear(9.0, 0.5, 5), new double[] {10.0}).apply(new double[] {1, 1, 1, 1, 1});
+        assertArrayEquals(new double[] {2.0}, into, 1e-12);
+    }
+
+    @Test
+    void descendingOrDuplicateAxesAreRejected() {
+        double[] ascending = linear(0.0, 1.0, 8);
+        double[] descending = linear(7.0, -1.0, 8);
+        double[] duplicate = {0.0, 1.0, 2.0, 2.0, 3.0, 4.0, 5.0, 6.0};
+        for (double[] bad : List.of(descending, duplicate, new double[0])) {
+            assertThrows(IllegalArgumentException.class, () -> Rebinning.compute(bad, ascending));
+            assertThrows(IllegalArgumentException.class, () -> Rebinning.compute(ascending, bad));
+        }
+    }
+
+    //Differently calibrated spectra go through Rebinning => bad axes surface as IllegalArgumentException (400 at the API)
+    @Test
+    void additionAndSubtractionRejectBadAxes() {
+        Spectrum good = new Spectrum(linear(0.0, 1.0, 8), new double[8]);
+        Spectrum descending = new Spectrum(linear(7.0, -1.0, 8), new double[8]);
+        Spectrum duplicate = new Spectrum(new double[] {0.0, 1.0, 2.0, 2.0, 3.0, 4.0, 5.0, 6.0}, new double[8]);
+        for (Spectrum bad : List.of(descending, duplicate)) {
+            assertThrows(IllegalArgumentException.class, () -> CalculatingAlgos.ADDITION.calculate(good, bad));
+            assertThrows(IllegalArgumentException.class, () -> CalculatingAlgos.SUBTRACTION.calculate(good, bad));
+            assertThrows(IllegalArgumentException.class,
+                    () -> SpectrumSummation.combine(List.of(good, bad), SpectrumSummation.Operation.SUM, SpectrumSummation.Weighting.NONE));
+            assertThrows(IllegalArgumentException.class,
+                    () -> SpectrumExpression.parse("A - B").evaluate(Map.of("A", good, "B", bad)));
+        }
+    }
+
+    @Test
+    void cachedPlanMatchesFreshPlan() {
+        Rebinning.clear();
+        double[] from = linear(0.0, 0.5, 512);
+        double[] to = linear(1.3, 0.8, 300);
+        double[] counts = counts(512, new Random(3));
+        double[] first = Rebinning.rebin(counts, from, to);
+        //Changing the caller's array must not change the cached key or plan
+        from[0] = -1.0;
+        double[] again = Rebinning.rebin(counts, linear(0.0, 0.5, 512), to);
+        assertArrayEquals(first, again, 0.0);
+        assertArrayEquals(Rebinning.compute(linear(0.0, 0.5, 512), to).apply(counts), again, 0.0);
+    }
+
+    private static double[] linear(double offset, double slope, int n) {
+        return quadratic(offset, slope, 0.0, n);
+    }
+
+    private static double[] quadratic(double offset, double slope, double quad, int n) {
+        double[] e = new double[n];
+        for (int i = 0; i < n; i++) e[i] = offset + slope * i + quad * i * i;
+        return e;
+    }
+
+    private static double[] counts(int n, Random random) {
+        double[] c = new double[n];
+        for (int i = 0; i < n; i++) c[i] = random.nextDouble() * 1000.0;
+        return c;
+    }
+
+    private static double sum(double[] values) {
+        double s = 0.0;
+        for (double v : values) s += v;
+        return s;
+    }
+}
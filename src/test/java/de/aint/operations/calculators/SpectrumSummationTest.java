@@ -0,0 +1,101 @@
+package de.aint.operations.calculators;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import de.aint.models.Spectrum;
+import de.aint.operations.calculators.Calculator.CalculatingAlgos;
+import de.aint.operations.calculators.SpectrumSummation.Operation;
+import de.aint.operations.calculators.SpectrumSummation.Weighting;
+
+//Pairwise operators, combine and expressions must agree on the grid and the counts
+class SpectrumSummationTest {
+
+    //ADDITION / SUBTRACTION scale by srcForce on both calibration paths => combine(..., SRC_FORCE) and "fa*A + fb*B"
+    @Test
+    void pairwiseMatchesCombineAndExpression() {
+        Random random = new Random(24);
+        Spectrum a = new Spectrum(counts(4096, random), 0.4, 0.366, 0.0);
+        Spectrum b = new Spectrum(counts(8192, random), -1.2, 0.25, 1.0e-7);
+        Spectrum c = new Spectrum(counts(4096, random), 0.4, 0.366, 0.0);
+        a.setSrcForce(2.5);
+        b.setSrcForce(0.4);
+        c.setSrcForce(3.0);
+
+        //b : different calibration (rebinned), c : same calibration as a (channel by channel)
+        for (Spectrum other : List.of(b, c)) {
+            Map<String, Spectrum> bindings = Map.of("A", a, "B", other);
+            String scaled = a.getSrcForce() + "*A %s " + other.getSrcForce() + "*B";
+
+            Spectrum added = CalculatingAlgos.ADDITION.calculate(a, other);
+            Spectrum combined = SpectrumSummation.combine(List.of(a, other), Operation.SUM, Weighting.SRC_FORCE);
+            Spectrum expression = SpectrumExpression.parse(scaled.formatted("+")).evaluate(bindings);
+            assertArrayEquals(added.getEnergy_per_channel(), combined.getEnergy_per_channel(), 0.0);
+            assertArrayEquals(added.getEnergy_per_channel(), expression.getEnergy_per_channel(), 0.0);
+            assertArrayEquals(added.getCounts(), combined.getCounts(), 1e-9);
+            assertArrayEquals(added.getCounts(), expression.getCounts(), 1e-9);
+
+            Spectrum subtracted = CalculatingAlgos.SUBTRACTION.calculate(a, other);
+            Spectrum difference = SpectrumExpression.parse(scaled.formatted("-")).evaluate(bindings);
+            assertArrayEquals(subtracted.getEnergy_per_channel(), difference.getEnergy_per_channel(), 0.0);
+            assertArrayEquals(subtracted.getCounts(), difference.getCounts(), 1e-9);
+        }
+        //Inputs are not scaled in place
+        assertEquals(2.5, a.getSrcForce());
+        assertArrayEquals(counts(4096, new Random(24)), a.getCounts(), 0.0);
+    }
+
+    @Test
+    void gridSpansAllSpectraWithTheFirstChannelCount() {
+        Spectrum a = new Spectrum(new double[100], 10.0, 1.0, 0.0);
+        Spectrum b = new Spectrum(new double[50], 0.0, 3.0, 0.0);
+        double[] grid = SpectrumSummation.commonGrid(List.of(a, b));
+        assertEquals(100, grid.length);
+        assertEquals(0.0, grid[0]);
+        assertEquals(147.0, grid[grid.length - 1], 1e-12);
+    }
+
+    @Test
+    void liveTimeSumIsTheSumOfCountRates() {
+        Spectrum a = new Spectrum(new double[] {100, 200, 300}, 0.0, 1.0, 0.0);
+        Spectrum b = new Spectrum(new double[] {50, 50, 50}, 0.0, 1.0, 0.0);
+        a.setLiveTime(100.0);
+        b.setLiveTime(10.0);
+        assertArrayEquals(new double[] {6.0, 7.0, 8.0},
+                SpectrumSummation.combine(List.of(a, b), Operation.SUM, Weighting.LIVE_TIME).getCounts(), 1e-12);
+        assertArrayEquals(new double[] {3.0, 3.5, 4.0},
+                SpectrumSummation.combine(List.of(a, b), Operation.MEAN, Weighting.LIVE_TIME).getCounts(), 1e-12);
+    }
+
+    @Test
+    void resultKeepsTheCalibrationOnlyOnTheTemplateAxis() {
+        Spectrum calibrated = new Spectrum(new double[] {1, 2, 3, 4}, 0.5, 2.0, 0.01);
+        Spectrum same = SpectrumSummation.combine(List.of(calibrated, calibrated), Operation.SUM, Weighting.NONE);
+        assertArrayEquals(new double[] {0.5, 2.0, 0.01}, new double[] {same.getEc_offset(), same.getEc_slope(), same.getEc_quad()}, 0.0);
+        assertArrayEquals(calibrated.getEnergy_per_channel(), same.getEnergy_per_channel(), 0.0);
+
+        //MCNP : tabulated energies, no calibration to keep
+        Spectrum mcnp = new Spectrum(new double[] {10, 20, 35, 60}, new double[] {1, 1, 1, 1});
+        Spectrum tabulated = SpectrumSummation.combine(List.of(mcnp, mcnp), Operation.MEAN, Weighting.NONE);
+        assertArrayEquals(mcnp.getEnergy_per_channel(), tabulated.getEnergy_per_channel(), 0.0);
+        assertArrayEquals(mcnp.getCounts(), tabulated.getCounts(), 0.0);
+
+        //Rebinned grid => tabulated result even for a calibrated first spectrum
+        Spectrum other = new Spectrum(new double[] {1, 2, 3, 4}, 0.0, 2.5, 0.0);
+        Spectrum rebinned = SpectrumSummation.combine(List.of(calibrated, other), Operation.SUM, Weighting.NONE);
+        assertEquals(0.0, rebinned.getEc_slope());
+        assertArrayEquals(SpectrumSummation.commonGrid(List.of(calibrated, other)), rebinned.getEnergy_per_channel(), 0.0);
+    }
+
+    private static double[] counts(int n, Random random) {
+        double[] c = new double[n];
+        for (int i = 0; i < n; i++) c[i] = random.nextDouble() * 1000.0;
+        return c;
+    }
+}
@@ -0,0 +1,70 @@
+package de.aint.operations.fitters;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+//Vector tap loop against the scalar one, plus the scalar / vector timing that used to run on every startup
+class ConvolutionEngineTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConvolutionEngineTest.class);
+
+    private static final int CHANNELS = 8192;
+    private static final int[] WIDTHS = {7, 17, 37, 73};
+    private static final int RUNS = 20;
+
+    @Test
+    void vectorMatchesScalar() {
+        double[] signal = signal();
+        for (int width : WIDTHS) {
+            double[] kernel = FitterHelper.createGaussKernel(width / 6.0, width);
+            double[] scalar = new double[CHANNELS];
+            double[] vector = new double[CHANNELS];
+            ConvolutionEngine.convolve(signal, kernel, scalar, false);
+            ConvolutionEngine.convolve(signal, kernel, vector, ConvolutionEngine.isVectorized());
+            for (int i = 0; i < CHANNELS; i++) {
+                assertEquals(scalar[i], vector[i], 1e-9 * Math.abs(scalar[i]) + 1e-12, "width " + width + ", channel " + i);
+            }
+        }
+    }
+
+    @Test
+    void convolveWithKernelUsesItsWeights() {
+        double[] signal = signal();
+        double[] weights = FitterHelper.createGaussKernel(17 / 6.0, 17);
+        double[] expected = new double[CHANNELS];
+        ConvolutionEngine.convolve(signal, weights, expected, ConvolutionEngine.isVectorized());
+        double[] actual = ConvolutionEngine.convolve(signal, new Kernel(weights));
+        for (int i = 0; i < CHANNELS; i++) assertEquals(expected[i], actual[i], 0.0);
+    }
+
+    //Timing only, no assertion on the speedup (depends on the machine)
+    @Test
+    void benchmarkScalarAgainstVector() {
+        double[] signal = signal();
+        double[] out = new double[CHANNELS];
+        for (int width : WIDTHS) {
+            double[] kernel = FitterHelper.createGaussKernel(width / 6.0, width);
+            double scalarMs = time(signal, kernel, out, false);
+            double vectorMs = ConvolutionEngine.isVectorized() ? time(signal, kernel, out, true) : scalarMs;
+            logger.info("Convolution width {}: scalar {} ms, vector {} ms, speedup {}x", width,
+                    String.format("%.3f", scalarMs), String.format("%.3f", vectorMs), String.format("%.2f", scalarMs / vectorMs));
+        }
+    }
+
+    private static double[] signal() {
+        double[] signal = new double[CHANNELS];
+        for (int i = 0; i < CHANNELS; i++) signal[i] = 1e3 * Math.exp(-i / (double) CHANNELS) + (i % 97);
+        return signal;
+    }
+
+    private static double time(double[] signal, double[] kernel, double[] out, boolean vectorized) {
+        //Warm up so the JIT compiles the loop before timing
+        for (int r = 0; r < 5 * RUNS; r++) ConvolutionEngine.convolve(signal, kernel, out, vectorized);
+        long start = System.nanoTime();
+        for (int r = 0; r < RUNS; r++) ConvolutionEngine.convolve(signal, kernel, out, vectorized);
+        return (System.nanoTime() - start) / 1e6 / RUNS;
+    }
+}
@@ -0,0 +1,81 @@
+package de.aint.operations.fitters;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import de.aint.models.Spectrum;
+
+//Rolling outlier flags against the per-window copy + exceedsStandardDeviation they replaced, SG with a too-small window
+class FitterHelperTest {
+
+    @Test
+    void outlierWindowsMatchThePerWindowTest() {
+        Random random = new Random(7);
+        int[] lengths = {1, 2, 3, 5, 17, 64, 1000};
+        int[] halfWindows = {1, 2, 8, 20};
+        //Not the square root of a small rational : integer windows would tie exactly at the threshold (rounding decides)
+        float[] thresholds = {1.7f, 2.3f, 3.1f};
+        for (int n : lengths) {
+            for (int trial = 0; trial < 20; trial++) {
+                double[] counts = counts(n, random);
+                boolean[] outliers = new boolean[n];
+                int[] dequeBuffer = new int[2 * n];
+                for (int h : halfWindows) {
+                    for (float threshold : thresholds) {
+                        FitterHelper.markOutlierWindows(counts, h, threshold, outliers, dequeBuffer);
+                        for (int i = 0; i < n; i++) {
+                            assertEquals(baseline(counts, i, h, threshold), outliers[i],
+                                    "n " + n + ", half window " + h + ", threshold " + threshold + ", channel " + i);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void tooSmallWindowReturnsTheCounts() {
+        double[] counts = counts(200, new Random(8));
+        Spectrum spec = new Spectrum(counts, 0.0, 1.0, 0.0);
+        for (int window : new int[] {0, 1}) {
+            FittingData data = new FittingData(spec);
+            data.sgWindowSize = window;
+            double[] smoothed = Fitter.SmoothingFitAlgos.SG.fit(data);
+            assertArrayEquals(counts, smoothed, 0.0);
+            assertNotSame(spec.getCounts(), smoothed);
+        }
+    }
+
+    //The old SG check : copy of the clipped window (last channel excluded), then mean / population stdDev
+    private static boolean baseline(double[] counts, int i, int halfWindow, float threshold) {
+        double[] window = Arrays.copyOfRange(counts, Math.max(i - halfWindow, 0), Math.min(i + halfWindow + 1, counts.length - 1));
+        double mean = 0;
+        for (double count : window) mean += count;
+        mean /= window.length;
+
+        double variance = 0;
+        for (double count : window) variance += Math.pow(count - mean, 2);
+        variance /= window.length;
+        double stdDev = Math.sqrt(variance);
+        if (stdDev == 0) return false;
+        for (double count : window) {
+            if (Math.abs(count - mean) > threshold * stdDev) return true;
+        }
+        return false;
+    }
+
+    //Poisson-like integer counts with flat stretches (zero variance) and isolated spikes
+    private static double[] counts(int n, Random random) {
+        double[] c = new double[n];
+        for (int i = 0; i < n; i++) c[i] = Math.round(100 + 10 * random.nextGaussian());
+        if (n > 40) Arrays.fill(c, n / 3, n / 3 + 30, 42.0);
+        for (int k = 0; k < n / 50; k++) c[random.nextInt(n)] += 500 + random.nextInt(500);
+        return c;
+    }
+}
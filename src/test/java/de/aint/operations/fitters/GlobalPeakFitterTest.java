@@ -0,0 +1,98 @@
+package de.aint.operations.fitters;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import de.aint.models.Peak;
+import de.aint.models.ROI;
+import de.aint.models.Spectrum;
+
+//Spectrum-wide fit : ROIs generated from a known FWHM curve give back its coefficients,
+//with fewer ROIs than coefficients the higher orders stay at their start values
+class GlobalPeakFitterTest {
+
+    //FWHM(ch) = c0 + c1 ch + c2 ch^2
+    private static final double[] TRUTH = {1.5, 2.0e-3, 5.0e-7};
+    private static final double BACKGROUND = 20.0;
+    //Short, steep tail and the smallest step => shape(mu) ~ 1, the fixed A is (almost) the true amplitude
+    private static final double T = 0.3, G = 0.05, S = 1e-3;
+
+    private final double[] defaultShapeCal = new Spectrum().shapeCal();
+
+    @AfterEach
+    void restoreShapeCal() {
+        new Spectrum().setShape_cal(defaultShapeCal);
+    }
+
+    @Test
+    void recoversTheFwhmCoefficients() {
+        int[] centers = {300, 1200, 2200, 3500};
+        ROI[] rois = rois(centers);
+        //Start 20 - 30 % off the truth
+        rois[0].getSpectrum().setShape_cal(new double[] {TRUTH[0] * 1.2, TRUTH[1] * 0.8, TRUTH[2] * 1.3});
+
+        GlobalPeakFitter.Result result = GlobalPeakFitter.fit(rois, 200, FitBudget.unlimited());
+        assertEquals(FitStatus.CONVERGED, result.status());
+        for (int k = 0; k < GlobalPeakFitter.SHARED; k++) {
+            assertEquals(TRUTH[k], result.shapeCal()[k], 1e-2 * TRUTH[k], "c" + k + " " + Arrays.toString(result.shapeCal()));
+        }
+        //Per-ROI sigma follows the fitted curve
+        for (int r = 0; r < centers.length; r++) {
+            assertEquals(fwhm(TRUTH, centers[r]) / 2.35, result.roiParams()[r][1], 2e-3 * fwhm(TRUTH, centers[r]));
+            assertEquals(FitStatus.CONVERGED, rois[r].getFitStatus());
+        }
+    }
+
+    @Test
+    void fewerRoisThanCoefficientsKeepTheHigherOrdersFixed() {
+        //Two ROIs : c0 / c1 are fitted, c2 stays at its (here correct) start value
+        ROI[] two = rois(new int[] {600, 2800});
+        double[] start = {TRUTH[0] * 0.8, TRUTH[1] * 1.25, TRUTH[2]};
+        two[0].getSpectrum().setShape_cal(start.clone());
+        GlobalPeakFitter.Result result = GlobalPeakFitter.fit(two, 200, FitBudget.unlimited());
+        assertEquals(FitStatus.CONVERGED, result.status());
+        assertEquals(start[2], result.shapeCal()[2], 0.0);
+        assertEquals(TRUTH[0], result.shapeCal()[0], 1e-2 * TRUTH[0]);
+        assertEquals(TRUTH[1], result.shapeCal()[1], 1e-2 * TRUTH[1]);
+
+        //One ROI : only c0 moves, the fitted curve goes through the ROI's width
+        ROI[] one = rois(new int[] {1500});
+        start = new double[] {TRUTH[0], TRUTH[1] * 1.1, TRUTH[2] * 0.7};
+        one[0].getSpectrum().setShape_cal(start.clone());
+        result = GlobalPeakFitter.fit(one, 200, FitBudget.unlimited());
+        assertEquals(FitStatus.CONVERGED, result.status());
+        assertEquals(start[1], result.shapeCal()[1], 0.0);
+        assertEquals(start[2], result.shapeCal()[2], 0.0);
+        assertEquals(fwhm(TRUTH, 1500), fwhm(result.shapeCal(), 1500), 1e-2 * fwhm(TRUTH, 1500));
+    }
+
+    //One single-peak ROI per center on a flat background, 1 keV per channel => energy == channel
+    private static ROI[] rois(int[] centers) {
+        int n = 4096;
+        double[] counts = new double[n];
+        Arrays.fill(counts, BACKGROUND);
+        for (int c : centers) {
+            double sigma = fwhm(TRUTH, c) / 2.35;
+            for (int i = 0; i < n; i++) counts[i] += 5000.0 * PeakShape.shape(i, sigma, c, T, G, S);
+        }
+        Spectrum spec = new Spectrum(counts, 0.0, 1.0, 0.0);
+        double[] background = new double[n];
+        Arrays.fill(background, BACKGROUND);
+        spec.setBackgroundCounts(background);
+
+        ROI[] rois = new ROI[centers.length];
+        for (int r = 0; r < centers.length; r++) {
+            double halfWidth = Math.ceil(3 * fwhm(TRUTH, centers[r]));
+            rois[r] = new ROI(spec, new Peak[] {new Peak(centers[r])}, centers[r] - halfWidth, centers[r] + halfWidth);
+        }
+        return rois;
+    }
+
+    private static double fwhm(double[] c, double channel) {
+        return c[0] + c[1] * channel + c[2] * channel * channel;
+    }
+}
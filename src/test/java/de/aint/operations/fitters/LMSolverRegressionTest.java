@@ -0,0 +1,192 @@
+package de.aint.operations.fitters;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.apache.commons.math3.fitting.leastsquares.LeastSquaresBuilder;
+import org.apache.commons.math3.fitting.leastsquares.LeastSquaresOptimizer.Optimum;
+import org.apache.commons.math3.fitting.leastsquares.LeastSquaresProblem;
+import org.apache.commons.math3.fitting.leastsquares.LevenbergMarquardtOptimizer;
+import org.apache.commons.math3.fitting.leastsquares.MultivariateJacobianFunction;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.DiagonalMatrix;
+import org.apache.commons.math3.linear.LUDecomposition;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.util.Pair;
+import org.junit.jupiter.api.Test;
+
+//Bounded LM solver against the commons-math optimizer it replaced (projected model, clamped Jacobian columns)
+//on a noisy two-peak ROI : same parameters, fixed parameters untouched, covariance = reduced chi^2 (J^T W J)^-1
+class LMSolverRegressionTest {
+
+    private static final int M = 120;
+    private static final double B_SET = 40.0;
+
+    @Test
+    void matchesTheCommonsMathFit() {
+        Problem pr = problem();
+        double[] old = commonsMathFit(pr);
+        LMPeakFitting.Result fit = LMPeakFitting.fit(pr.E, pr.y, pr.start, 200, B_SET, pr.muSet, pr.Aset, pr.w, FitBudget.unlimited());
+
+        assertEquals(FitStatus.CONVERGED, fit.status());
+        double[] p = fit.params();
+        double[] cov = fit.covariance();
+        int n = p.length;
+        for (int j = 0; j < n; j++) {
+            //Well inside the statistical uncertainty of the parameter
+            double tolerance = cov[j * n + j] > 0 ? 1e-3 * Math.sqrt(cov[j * n + j]) : 1e-9 * Math.max(1.0, Math.abs(p[j]));
+            assertEquals(old[j], p[j], tolerance, "parameter " + j);
+        }
+    }
+
+    @Test
+    void fixedParametersStayAndHaveNoCovariance() {
+        Problem pr = problem();
+        LMPeakFitting.Result fit = LMPeakFitting.fit(pr.E, pr.y, pr.start, 200, B_SET, pr.muSet, pr.Aset, pr.w, FitBudget.unlimited());
+        double[] p = fit.params();
+        double[] cov = fit.covariance();
+        int n = p.length;
+        for (int k = 0; k < pr.muSet.length; k++) {
+            //A and mu have lo == hi
+            int a = 2 + 5 * k;
+            assertEquals(pr.Aset[k], p[a], 0.0);
+            assertEquals(pr.muSet[k], p[a + 1], 0.0);
+            for (int j = 0; j < n; j++) {
+                for (int fixed : new int[] {a, a + 1}) {
+                    assertEquals(0.0, cov[fixed * n + j], 0.0);
+                    assertEquals(0.0, cov[j * n + fixed], 0.0);
+                }
+            }
+        }
+    }
+
+    @Test
+    void covarianceIsTheScaledInverseNormalMatrix() {
+        Problem pr = problem();
+        LMPeakFitting.Result fit = LMPeakFitting.fit(pr.E, pr.y, pr.start, 200, B_SET, pr.muSet, pr.Aset, pr.w, FitBudget.unlimited());
+        double[] p = fit.params();
+        double[] cov = fit.covariance();
+        int n = p.length;
+
+        //Free = strictly inside the bounds
+        double[] lo = new double[n];
+        double[] hi = new double[n];
+        bounds(pr, lo, hi);
+        int[] free = new int[n];
+        int nf = 0;
+        for (int j = 0; j < n; j++) if (p[j] > lo[j] && p[j] < hi[j]) free[nf++] = j;
+        assertTrue(nf >= 4, "free parameters " + nf);
+
+        //Central-difference Jacobian over the free parameters, J^T W J and the weighted cost
+        double[][] J = new double[M][nf];
+        for (int a = 0; a < nf; a++) {
+            int j = free[a];
+            double h = 1e-6 * Math.max(1.0, Math.abs(p[j]));
+            double[] plus = p.clone();
+            double[] minus = p.clone();
+            plus[j] += h;
+            minus[j] -= h;
+            for (int i = 0; i < M; i++) J[i][a] = (PeakShape.value(pr.E[i], plus) - PeakShape.value(pr.E[i], minus)) / (2 * h);
+        }
+        double[][] normal = new double[nf][nf];
+        for (int a = 0; a < nf; a++) {
+            for (int b = 0; b < nf; b++) {
+                double s = 0.0;
+                for (int i = 0; i < M; i++) s += pr.w[i] * J[i][a] * J[i][b];
+                normal[a][b] = s;
+            }
+        }
+        double cost = 0.0;
+        for (int i = 0; i < M; i++) {
+            double r = pr.y[i] - PeakShape.value(pr.E[i], p);
+            cost += pr.w[i] * r * r;
+        }
+        RealMatrix inverse = new LUDecomposition(new Array2DRowRealMatrix(normal, false)).getSolver().getInverse();
+        double scale = cost / (M - nf);
+
+        for (int a = 0; a < nf; a++) {
+            for (int b = 0; b < nf; b++) {
+                double expected = scale * inverse.getEntry(a, b);
+                double size = scale * Math.sqrt(inverse.getEntry(a, a) * inverse.getEntry(b, b));
+                assertEquals(expected, cov[free[a] * n + free[b]], 1e-4 * size, "cov(" + free[a] + ", " + free[b] + ")");
+            }
+        }
+    }
+
+    private record Problem(double[] E, double[] y, double[] w, double[] start, double[] muSet, double[] Aset) {}
+
+    //Two overlapping tailed peaks on a flat background with Poisson-like noise, 0.5 keV per channel
+    private static Problem problem() {
+        Random random = new Random(14);
+        double[] truth = {31.0, 2.2, 800.0, 120.0, 0.8, 1.1, 0.02, 450.0, 133.0, 0.6, 1.4, 0.01};
+        double[] E = new double[M];
+        double[] y = new double[M];
+        for (int i = 0; i < M; i++) {
+            E[i] = 100.0 + 0.5 * i;
+            double mean = PeakShape.value(E[i], truth);
+            y[i] = Math.max(0.0, mean + Math.sqrt(mean) * random.nextGaussian());
+        }
+        double[] muSet = {truth[3], truth[8]};
+        double[] Aset = {truth[2], truth[7]};
+        double[] start = {35.0, 3.0, Aset[0], muSet[0], 0.5, 1.5, 0.05, Aset[1], muSet[1], 0.5, 1.5, 0.05};
+        double[] w = LMPeakFitting.calculateWeight(E, y, muSet, 4.5, 2.0, start[1]);
+        return new Problem(E, y, w, start, muSet, Aset);
+    }
+
+    //Box of LMPeakFitting : B up to 50 below its set value, sigma above 0.3 channels, A / mu fixed, T / G / S bounded below
+    private static void bounds(Problem pr, double[] lo, double[] hi) {
+        lo[0] = B_SET - 50.0;
+        hi[0] = B_SET;
+        lo[1] = 0.3 * (pr.E[1] - pr.E[0]);
+        hi[1] = Double.POSITIVE_INFINITY;
+        for (int k = 0; k < pr.muSet.length; k++) {
+            int offset = 2 + 5 * k;
+            lo[offset] = hi[offset] = pr.Aset[k];
+            lo[offset + 1] = hi[offset + 1] = pr.muSet[k];
+            lo[offset + 2] = 0.3;
+            lo[offset + 3] = 1e-3;
+            lo[offset + 4] = 1e-3;
+            hi[offset + 2] = hi[offset + 3] = hi[offset + 4] = Double.POSITIVE_INFINITY;
+        }
+    }
+
+    //The optimizer LMPeakFitting.fit used before PeakLMSolver : unconstrained commons-math LM on a model that
+    //projects the parameters into the bounds and zeroes the Jacobian columns the projection clamps
+    private static double[] commonsMathFit(Problem pr) {
+        int n = pr.start.length;
+        double[] lo = new double[n];
+        double[] hi = new double[n];
+        bounds(pr, lo, hi);
+        MultivariateJacobianFunction model = point -> {
+            double[] p = point.toArray();
+            double[] q = new double[n];
+            for (int j = 0; j < n; j++) q[j] = Math.max(lo[j], Math.min(hi[j], p[j]));
+
+            double[] f = new double[M];
+            double[] flat = new double[M * n];
+            PeakShape.valueAndJacobian(pr.E, M, q, n, f, flat);
+            double[][] J = new double[M][n];
+            for (int j = 0; j < n; j++) {
+                //d(project)/dp : 1 on [lo, hi), 0 otherwise (never for lo == hi)
+                boolean moves = p[j] >= lo[j] && p[j] < hi[j];
+                for (int i = 0; i < M; i++) J[i][j] = moves ? flat[i * n + j] : 0.0;
+            }
+            return new Pair<>(new ArrayRealVector(f, false), new Array2DRowRealMatrix(J, false));
+        };
+        LeastSquaresProblem problem = new LeastSquaresBuilder()
+                .model(model)
+                .target(new ArrayRealVector(pr.y, false))
+                .start(new ArrayRealVector(pr.start, false))
+                .weight(new DiagonalMatrix(pr.w))
+                .maxIterations(200)
+                .maxEvaluations(200_000)
+                .build();
+        Optimum opt = new LevenbergMarquardtOptimizer().optimize(problem);
+        double[] p = opt.getPoint().toArray();
+        for (int j = 0; j < n; j++) p[j] = Math.max(lo[j], Math.min(hi[j], p[j]));
+        return p;
+    }
+}
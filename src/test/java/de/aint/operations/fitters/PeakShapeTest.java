@@ -0,0 +1,69 @@
+package de.aint.operations.fitters;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.apache.commons.math3.special.Erf;
+import org.junit.jupiter.api.Test;
+
+//Fast erfc against reference values, closed-form peak integral against numeric quadrature of shape()
+class PeakShapeTest {
+
+    @Test
+    void erfcMatchesReferenceValues() {
+        //erfc(x) to 19 digits
+        double[][] reference = {
+                {0.0, 1.0},
+                {0.5, 0.4795001221869534623},
+                {1.0, 0.1572992070502851307},
+                {-1.0, 1.842700792949714869},
+                {2.0, 0.004677734981047265838},
+                {5.0, 1.537459794428034850e-12},
+                {10.0, 2.088487583762544757e-45},
+        };
+        for (double[] r : reference) {
+            assertEquals(r[1], PeakShape.erfc(r[0]), 1e-15 * r[1], "erfc(" + r[0] + ")");
+        }
+        assertEquals(0.0, PeakShape.erfc(30.0));
+        assertEquals(2.0, PeakShape.erfc(-30.0));
+    }
+
+    @Test
+    void erfcMatchesCommonsMath() {
+        for (double x = -6.0; x <= 6.0; x += 0.01) {
+            double expected = Erf.erfc(x);
+            assertEquals(expected, PeakShape.erfc(x), 1e-12 * expected, "erfc(" + x + ")");
+        }
+    }
+
+    @Test
+    void integralMatchesQuadrature() {
+        //sigma, mu, T, G, S
+        double[][] shapes = {
+                {1.5, 500.0, 0.0, 1.0, 0.0},
+                {1.5, 500.0, 0.5, 1.5, 0.05},
+                {0.8, 1332.5, 0.3, 0.4, 0.01},
+                {3.0, 661.7, 1.2, 4.0, 0.2},
+        };
+        for (double[] s : shapes) {
+            double sigma = s[0], mu = s[1];
+            //Whole peak, one flank and a window on the low-energy tail
+            double[][] ranges = {{mu - 20 * sigma, mu + 20 * sigma}, {mu, mu + 3 * sigma}, {mu - 15 * sigma, mu - 4 * sigma}};
+            for (double[] r : ranges) {
+                double expected = simpson(r[0], r[1], sigma, mu, s[2], s[3], s[4]);
+                double actual = PeakShape.integral(r[0], r[1], sigma, mu, s[2], s[3], s[4]);
+                assertEquals(expected, actual, 1e-9 * Math.abs(expected) + 1e-12,
+                        "sigma " + sigma + ", T " + s[2] + ", G " + s[3] + ", S " + s[4] + " over [" + r[0] + ", " + r[1] + "]");
+            }
+        }
+    }
+
+    private static double simpson(double a, double b, double sigma, double mu, double T, double G, double S) {
+        int n = 20000;
+        double h = (b - a) / n;
+        double sum = PeakShape.shape(a, sigma, mu, T, G, S) + PeakShape.shape(b, sigma, mu, T, G, S);
+        for (int i = 1; i < n; i++) {
+            sum += (i % 2 == 0 ? 2 : 4) * PeakShape.shape(a + i * h, sigma, mu, T, G, S);
+        }
+        return sum * h / 3;
+    }
+}
@@ -0,0 +1,147 @@
+package de.aint.operations.fitters;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.CholeskyDecomposition;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.junit.jupiter.api.Test;
+
+import de.aint.models.Spectrum;
+
+//Banded ALS / ARPLS against the dense n x n Cholesky path they replaced
+class PentadiagonalSolverTest {
+
+    private static final int N = 600;
+
+    @Test
+    void solveMatchesDenseCholesky() {
+        double[] y = syntheticCounts();
+        double[] w = new double[N];
+        Random random = new Random(7);
+        for (int i = 0; i < N; i++) w[i] = random.nextBoolean() ? 1.0 : 1e-3;
+
+        double[] banded = new double[N];
+        new PentadiagonalSolver(N, 2e4).solve(w, y, banded);
+        assertClose(denseSolve(w, y, 2e4), banded);
+    }
+
+    @Test
+    void alsMatchesDensePath() {
+        Spectrum spec = syntheticSpectrum();
+        double[] expected = denseAls(spec.getCounts(), FittingData.GenericOpts.lambda, FittingData.GenericOpts.p, FittingData.GenericOpts.maxIter);
+        assertClose(expected, Fitter.BackgroundFitAlgos.ALS.fit(new FittingData(spec)));
+        assertClose(expected, Fitter.BackgroundFitAlgos.ALS_FAST.fit(new FittingData(spec)));
+    }
+
+    @Test
+    void arplsMatchesDensePath() {
+        Spectrum spec = syntheticSpectrum();
+        double[] expected = denseArpls(spec.getCounts(), FittingData.GenericOpts.lambda, FittingData.GenericOpts.p, FittingData.GenericOpts.maxIter);
+        assertClose(expected, Fitter.BackgroundFitAlgos.ARPLS.fit(new FittingData(spec)));
+    }
+
+    //Exponential continuum + three peaks + fixed-seed Poisson-like noise, 2 keV per channel
+    private static double[] syntheticCounts() {
+        Random random = new Random(42);
+        double[] counts = new double[N];
+        for (int i = 0; i < N; i++) {
+            double c = 50 + 500 * Math.exp(-i / 300.0)
+                    + 2000 * Math.exp(-0.5 * Math.pow((i - 100) / 3.0, 2))
+                    + 800 * Math.exp(-0.5 * Math.pow((i - 250) / 4.0, 2))
+                    + 300 * Math.exp(-0.5 * Math.pow((i - 430) / 5.0, 2));
+            counts[i] = Math.max(0, Math.round(c + Math.sqrt(c) * random.nextGaussian()));
+        }
+        return counts;
+    }
+
+    private static Spectrum syntheticSpectrum() {
+        return new Spectrum(syntheticCounts(), 0.0, 2.0, 0.0);
+    }
+
+    private static void assertClose(double[] expected, double[] actual) {
+        assertEquals(expected.length, actual.length);
+        double scale = Arrays.stream(expected).map(Math::abs).max().orElse(1.0);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual[i], 1e-8 * scale, "channel " + i);
+        }
+    }
+
+    //Previous implementation : dense W + penalty matrix, Cholesky per iteration
+    private static RealMatrix densePenalty(int n, double lambda) {
+        RealMatrix penalty = new Array2DRowRealMatrix(n, n);
+        for (int i = 0; i < n; i++) {
+            penalty.addToEntry(i, i, 6.0 * lambda);
+            if (i > 0) penalty.addToEntry(i, i - 1, -4.0 * lambda);
+            if (i < n - 1) penalty.addToEntry(i, i + 1, -4.0 * lambda);
+            if (i > 1) penalty.addToEntry(i, i - 2, lambda);
+            if (i < n - 2) penalty.addToEntry(i, i + 2, lambda);
+        }
+        return penalty;
+    }
+
+    private static double[] denseSolve(double[] weights, double[] y, double lambda) {
+        int n = y.length;
+        RealMatrix a = MatrixUtils.createRealDiagonalMatrix(weights).add(densePenalty(n, lambda));
+        double[] wy = new double[n];
+        for (int i = 0; i < n; i++) wy[i] = weights[i] * y[i];
+        return new CholeskyDecomposition(a).getSolver().solve(new ArrayRealVector(wy)).toArray();
+    }
+
+    private static double[] denseAls(double[] counts, double lambda, double p, int maxIter) {
+        int n = counts.length;
+        double[] weights = new double[n];
+        Arrays.fill(weights, 1.0);
+        double[] background = new double[n];
+        for (int iter = 0; iter < maxIter; iter++) {
+            background = denseSolve(weights, counts, lambda);
+            double delta = 0.0;
+            for (int i = 0; i < n; i++) {
+                double newWeight = counts[i] > background[i] ? p : 1.0 - p;
+                delta += Math.abs(newWeight - weights[i]);
+                weights[i] = newWeight;
+            }
+            if (delta < 1e-6) break;
+        }
+        return background;
+    }
+
+    private static double[] denseArpls(double[] counts, double lambda, double p, int maxIter) {
+        int n = counts.length;
+        double[] weights = new double[n];
+        Arrays.fill(weights, 1.0);
+        double[] background = new double[n];
+        for (int iter = 0; iter < maxIter; iter++) {
+            background = denseSolve(weights, counts, lambda);
+            double meanNeg = 0.0, stdNeg = 0.0;
+            int countNeg = 0;
+            for (int i = 0; i < n; i++) {
+                double v = counts[i] - background[i];
+                if (v < 0) { meanNeg += v; countNeg++; }
+            }
+            if (countNeg > 0) {
+                meanNeg /= countNeg;
+                for (int i = 0; i < n; i++) {
+                    double v = counts[i] - background[i];
+                    if (v < 0) stdNeg += (v - meanNeg) * (v - meanNeg);
+                }
+                stdNeg = Math.sqrt(stdNeg / countNeg);
+            }
+            if (stdNeg == 0) break;
+            double[] newWeights = new double[n];
+            double diff = 0.0;
+            for (int i = 0; i < n; i++) {
+                newWeights[i] = 1.0 / (1.0 + Math.exp(2.0 * ((counts[i] - background[i]) - (2 * stdNeg - meanNeg)) / stdNeg));
+                diff += Math.abs(weights[i] - newWeights[i]);
+            }
+            if (diff / n < p) break;
+            weights = newWeights;
+        }
+        return background;
+    }
+}
@@ -0,0 +1,120 @@
+package de.aint.readers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import de.aint.models.Isotop;
+
+//Binary-search lookups against a linear scan over the parsed library (file order, no table involved)
+class IsotopeIndexTest {
+
+    private static List<Isotop> library;
+    private static IsotopeIndex index;
+
+    @BeforeAll
+    static void load() throws IOException {
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(
+                IsotopeIndexTest.class.getClassLoader().getResourceAsStream(IsotopeLibrary.RESOURCE), StandardCharsets.UTF_8))) {
+            library = IsotopeReader.parse(br);
+        }
+        index = new IsotopeIndex(library);
+    }
+
+    @Test
+    void rankMatchesLinearScan() {
+        Random random = new Random(20);
+        double[] tolerances = {0.0, 0.05, 0.5, 2.0, 10.0};
+        int[] limits = {0, 1, 5};
+        for (int q = 0; q < 2000; q++) {
+            //Half of the queries exactly on a line => hits at tolerance 0 and ties in the score
+            double energy = q % 2 == 0
+                    ? library.get(random.nextInt(library.size())).energy
+                    : random.nextDouble() * 3000.0;
+            for (double tolerance : tolerances) {
+                for (int limit : limits) {
+                    List<IsotopeIndex.Candidate> expected = linearRank(energy, tolerance, limit);
+                    List<IsotopeIndex.Candidate> actual = index.rank(energy, tolerance, limit);
+                    String at = energy + " keV +-" + tolerance + ", limit " + limit;
+                    assertEquals(expected.size(), actual.size(), at);
+                    //Rows with equal score and distance (also on opposite sides) may come in any order => compared by value
+                    for (int k = 0; k < expected.size(); k++) {
+                        assertEquals(expected.get(k).score(), actual.get(k).score(), 0.0, at + ", rank " + k);
+                        assertEquals(Math.abs(expected.get(k).deltaEnergy()), Math.abs(actual.get(k).deltaEnergy()), 0.0, at + ", rank " + k);
+                    }
+                    if (limit == 0) assertEquals(keys(expected), keys(actual), at);
+                }
+            }
+        }
+    }
+
+    @Test
+    void nearestAndWithinToleranceMatchLinearScan() {
+        Random random = new Random(21);
+        for (int q = 0; q < 2000; q++) {
+            double energy = random.nextDouble() * 3200.0 - 100.0;
+            double best = Double.POSITIVE_INFINITY;
+            for (Isotop iso : library) {
+                if (iso.energy > 0) best = Math.min(best, Math.abs(iso.energy - energy));
+            }
+            assertEquals(best, Math.abs(index.nearest(energy).energy - energy), 0.0, "nearest to " + energy);
+
+            double tolerance = random.nextDouble() * 5.0;
+            List<String> expected = new ArrayList<>();
+            for (Isotop iso : library) {
+                if (iso.energy > 0 && iso.energy >= energy - tolerance && iso.energy <= energy + tolerance) expected.add(iso.id + "@" + iso.energy);
+            }
+            List<String> actual = new ArrayList<>();
+            double previous = Double.NEGATIVE_INFINITY;
+            for (Isotop iso : index.withinTolerance(energy, tolerance)) {
+                assertEquals(true, iso.energy >= previous, "ascending energy");
+                previous = iso.energy;
+                actual.add(iso.id + "@" + iso.energy);
+            }
+            expected.sort(null);
+            actual.sort(null);
+            assertEquals(expected, actual, energy + " keV +-" + tolerance);
+        }
+    }
+
+    @Test
+    void emptyIndex() {
+        IsotopeIndex empty = new IsotopeIndex(List.of(new Isotop("UNK", "UNK", 0.0, 0.0, 0.0)));
+        assertEquals(0, empty.size());
+        assertNull(empty.nearest(661.7));
+        assertEquals(List.of(), empty.rank(661.7, 5.0, 0));
+    }
+
+    private static List<String> keys(List<IsotopeIndex.Candidate> candidates) {
+        List<String> keys = new ArrayList<>();
+        for (IsotopeIndex.Candidate c : candidates) keys.add(c.isotope().id + "@" + c.isotope().energy);
+        keys.sort(null);
+        return keys;
+    }
+
+    private static List<IsotopeIndex.Candidate> linearRank(double energy, double tolerance, int limit) {
+        List<IsotopeIndex.Candidate> hits = new ArrayList<>();
+        for (Isotop iso : library) {
+            //Same window as the index : [energy - tolerance, energy + tolerance]
+            if (iso.energy <= 0 || iso.energy < energy - tolerance || iso.energy > energy + tolerance) continue;
+            double delta = iso.energy - energy;
+            double closeness = tolerance > 0 ? 1.0 - (delta / tolerance) * (delta / tolerance) : 1.0;
+            double weight = 1.0 + Math.log10(1.0 + iso.intensity * iso.isotope_abundance / IsotopeIndex.STRENGTH_REFERENCE);
+            hits.add(new IsotopeIndex.Candidate(iso, delta, closeness * weight));
+        }
+        hits.sort(Comparator.comparingDouble((IsotopeIndex.Candidate c) -> -c.score())
+                .thenComparingDouble(c -> Math.abs(c.deltaEnergy())));
+        return limit > 0 && hits.size() > limit ? hits.subList(0, limit) : hits;
+    }
+}
@@ -0,0 +1,122 @@
+package de.aint.readers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import de.aint.models.Isotop;
+
+//Compiled isotope table : file round trip in file order, rejection of foreign / truncated files, recompile on a changed source
+class IsotopeTableTest {
+
+    //Header line and annihilation line are skipped by the parser, equal energies keep their file order
+    private static final String SOURCE = """
+            ID\tELEMENT SYMBOL\tENERGY\tINTENSITY\tISOTOPE ABUNDANCE
+            1\tAnnihilation Peak\t511.000\t2.000e+00\t0.000e+00
+            10010010001\tH\t2223.248\t1.000e+00\t9.999e-01
+            Ünterß-7\tÄ\t122.061\t8.560e-01\t1.000e+00
+            放射-60\tCo\t1173.228\t9.985e-01\t1.000e+00
+            𝛾-60b\tCo\t1332.492\t9.998e-01\t1.000e+00
+            270600010002\tCo\t122.061\t1.000e-02\t1.000e+00
+            """;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void writeAndOpenRoundTripInFileOrder() throws IOException {
+        List<Isotop> parsed = IsotopeReader.parse(new BufferedReader(new StringReader(SOURCE)));
+        Path file = dir.resolve("isotopes.bin");
+        IsotopeTable.write(parsed, file, 123, 456);
+        IsotopeTable table = IsotopeTable.open(file);
+
+        assertEquals(parsed.size(), table.size());
+        assertEquals(123, table.getSourceLength());
+        assertEquals(456, table.getSourceChecksum());
+        for (int j = 0; j < parsed.size(); j++) {
+            assertIsotope(parsed.get(j), table.isotope(table.rowOfFileEntry(j)));
+        }
+        //Rows ascending in energy
+        for (int row = 1; row < table.size(); row++) {
+            assertTrue(table.energy(row - 1) <= table.energy(row), "row " + row);
+        }
+        //In-memory table is the same format
+        IsotopeTable memory = IsotopeTable.of(parsed);
+        for (int j = 0; j < parsed.size(); j++) {
+            assertIsotope(parsed.get(j), memory.isotope(memory.rowOfFileEntry(j)));
+        }
+    }
+
+    @Test
+    void wrongMagicAndTruncatedFilesAreRejected() throws IOException {
+        List<Isotop> parsed = IsotopeReader.parse(new BufferedReader(new StringReader(SOURCE)));
+        Path file = dir.resolve("isotopes.bin");
+        IsotopeTable.write(parsed, file, 0, 0);
+        byte[] bytes = Files.readAllBytes(file);
+
+        Path bad = dir.resolve("bad.bin");
+        byte[] magic = bytes.clone();
+        ByteBuffer.wrap(magic).order(ByteOrder.LITTLE_ENDIAN).putInt(0, 0x12345678);
+        Files.write(bad, magic);
+        assertThrows(IllegalArgumentException.class, () -> IsotopeTable.open(bad));
+
+        //Inside the header, inside the columns, inside the strings
+        for (int length : new int[] {0, 10, 40, bytes.length / 2, bytes.length - 1}) {
+            Files.write(bad, Arrays.copyOf(bytes, length));
+            assertThrows(IllegalArgumentException.class, () -> IsotopeTable.open(bad), length + " bytes");
+        }
+    }
+
+    @Test
+    void libraryRecompilesWhenTheSourceChecksumChanged() throws IOException {
+        byte[] source;
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(IsotopeLibrary.RESOURCE)) {
+            source = in.readAllBytes();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(source);
+
+        //Same length, different checksum => outdated
+        Path file = dir.resolve("data").resolve("isotopes.bin");
+        List<Isotop> stale = IsotopeReader.parse(new BufferedReader(new StringReader(SOURCE)));
+        IsotopeTable.write(stale, file, source.length, crc.getValue() + 1);
+
+        IsotopeLibrary library = new IsotopeLibrary(file.toString());
+        IsotopeTable table = IsotopeTable.open(file);
+        assertEquals(crc.getValue(), table.getSourceChecksum());
+        assertEquals(source.length, table.getSourceLength());
+        assertEquals(library.size(), table.size());
+        assertNotEquals(stale.size(), table.size());
+
+        //Up to date => mapped, not rewritten
+        FileTime old = FileTime.fromMillis(0);
+        Files.setLastModifiedTime(file, old);
+        assertEquals(library.size(), new IsotopeLibrary(file.toString()).size());
+        assertEquals(old, Files.getLastModifiedTime(file));
+    }
+
+    private static void assertIsotope(Isotop expected, Isotop actual) {
+        assertEquals(expected.id, actual.id);
+        assertEquals(expected.symbol, actual.symbol);
+        assertEquals(expected.energy, actual.energy);
+        assertEquals(expected.intensity, actual.intensity);
+        assertEquals(expected.isotope_abundance, actual.isotope_abundance);
+    }
+}